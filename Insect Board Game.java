@@ -8,6 +8,20 @@ import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.TreeSet;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+import java.io.OutputStream;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
  
  
 /**
@@ -33,6 +47,7 @@ public class Main {
     private static final int MIN_INSECTS = 1;
     private static final int MAX_INSECTS = 16;
     private static final int INPUT_OFFSET = 3;
+    private static final int RESULT_BATCH_SIZE = 64;
  
     /**
      * Checks if the provided input for the board size is within the valid range.
@@ -132,25 +147,6 @@ public class Main {
         }
     }
  
-    /**
-     * Generates an output string representing the information about an insect, its color, type, direction,
-     * and the visible food points for that insect.
-     *
-     * @param visibleFoodPoints The number of visible food points for the insect.
-     * @param insect            The insect for which the output is being generated.
-     * @param direction         The direction in which the insect is moving.
-     * @return A formatted string containing information about the insect's color, type,direction,
-     * and visible food points.
-     */
-    private static String output(int visibleFoodPoints, Insect insect, Direction direction) {
-        String insectColor = insect.color.capitalizeFirstLetter();
-        String insectInfo = insect.toString();
-        String directionText = direction.getTextRepresentation();
-        return insectColor + ' ' + insectInfo + ' ' + directionText + ' ' + visibleFoodPoints + ' ' + '\n';
-    }
- 
- 
- 
     /**
      * This method reads input from a file, processes the inputs to create a game board with insects and food points,
      * determines the movement of insects, their visibility of food points,
@@ -214,29 +210,11 @@ public class Main {
                     insect.setBoard(gameBoard);
                 }
  
-                for (int i = 0; i < foodNumber; i++) {
-                    String[] foodInfo = input[i + INPUT_OFFSET + insectNumber].split(" ");
-                    int amount = Integer.parseInt(foodInfo[0]);
-                    int x = Integer.parseInt(foodInfo[1]);
-                    int y = Integer.parseInt(foodInfo[2]);
-                    EntityPosition position = EntityPosition.getPosition(x, y);
- 
- 
-                    if (!(position.getX() >= 1 && position.getX() <= gameBoard.getSize()
-                            && position.getY() >= 1 && position.getY() <= gameBoard.getSize())) {
-                        throw new InvalidEntityPositionException();
-                    }
-                    FoodPoint foodPoint = new FoodPoint(position, amount);
-                    gameBoard.addEntity(foodPoint);
-                    foodPoint.setBoard(gameBoard);
-                }
+                FoodSectionLoader.load(gameBoard, input, INPUT_OFFSET + insectNumber, foodNumber);
  
-                for (int i = 0; i < presentInsects.size(); i++) {
-                    Insect insect = presentInsects.get(i);
-                    Direction direction = gameBoard.getDirection(insect);
-                    int visibleFoodPoints = gameBoard.getDirectionVisibleFoodPoints(insect);
-                    outputFile.write(output(visibleFoodPoints, insect, direction).getBytes());
-                }
+                ResultStreamWriter resultWriter = new ResultStreamWriter(outputFile, RESULT_BATCH_SIZE);
+                new InsectResultPublisher(gameBoard, presentInsects).subscribe(resultWriter);
+                resultWriter.checkError();
                 outputFile.write("\n".getBytes());
                 outputFile.close();
                 inputFile.close();
@@ -500,18 +478,7 @@ class Grasshopper extends Insect implements  OrthogonalMoving {
                 Direction.N, Direction.E, Direction.S, Direction.W
         ));
         for (Direction dir: directions) {
-            EntityPosition position = entityPosition;
-            position = position.newPosition(position, dir);
-            position = position.newPosition(position, dir);
-            int visibleFoodPoints = 0;
-            while (board.checkPosition(position)) {
-                BoardEntity entity = boardData.get(position.toString());
-                if (entity instanceof FoodPoint) {
-                    visibleFoodPoints += ((FoodPoint) entity).getValue();
-                }
-                position = position.newPosition(position, dir);
-                position = position.newPosition(position, dir);
-            }
+            int visibleFoodPoints = board.getVisibleFoodPoints(entityPosition, dir, 2);
             if (visibleFoodPoints > maxVisibleFoodPoints) {
                 direction = dir;
                 maxVisibleFoodPoints = visibleFoodPoints;
@@ -624,16 +591,7 @@ class Ant extends Insect implements OrthogonalMoving, DiagonalMoving {
     @Override
     public int getOrthogonalDirectionVisibleValue(Direction dir, EntityPosition entityPosition, Map<String,
             BoardEntity> boardData, int boardSize) {
-        int visibleFoodPoints = 0;
-        EntityPosition position = entityPosition.newPosition(entityPosition, dir);
-        while (board.checkPosition(position)) {
-            BoardEntity entity = boardData.get(position.toString());
-            if (entity instanceof FoodPoint) {
-                visibleFoodPoints += ((FoodPoint) entity).getValue();
-            }
-            position = position.newPosition(position, dir);
-        }
-        return visibleFoodPoints;
+        return board.getVisibleFoodPoints(entityPosition, dir, 1);
     }
  
     @Override
@@ -661,16 +619,7 @@ class Ant extends Insect implements OrthogonalMoving, DiagonalMoving {
     @Override
     public int getDiagonalDirectionVisibleValue(Direction dir, EntityPosition entityPosition, Map<String,
             BoardEntity> boardData, int boardSize) {
-        int visibleFoodPoints = 0;
-        EntityPosition position = entityPosition.newPosition(entityPosition, dir);
-        while (board.checkPosition(position)) {
-            BoardEntity entity = boardData.get(position.toString());
-            if (entity instanceof FoodPoint) {
-                visibleFoodPoints += ((FoodPoint) entity).getValue();
-            }
-            position = position.newPosition(position, dir);
-        }
-        return visibleFoodPoints;
+        return board.getVisibleFoodPoints(entityPosition, dir, 1);
     }
  
     @Override
@@ -742,16 +691,7 @@ class Butterfly extends Insect implements OrthogonalMoving {
     @Override
     public int getOrthogonalDirectionVisibleValue(Direction dir, EntityPosition entityPosition, Map<String,
             BoardEntity> boardData, int boardSize) {
-        int visibleFoodPoints = 0;
-        EntityPosition position = entityPosition.newPosition(entityPosition, dir);
-        while (board.checkPosition(position)) {
-            BoardEntity entity = boardData.get(position.toString());
-            if (entity instanceof FoodPoint) {
-                visibleFoodPoints += ((FoodPoint) entity).getValue();
-            }
-            position = position.newPosition(position, dir);
-        }
-        return visibleFoodPoints;
+        return board.getVisibleFoodPoints(entityPosition, dir, 1);
     }
  
     @Override
@@ -824,16 +764,7 @@ class Spider extends Insect implements DiagonalMoving {
     @Override
     public int getDiagonalDirectionVisibleValue(Direction dir, EntityPosition entityPosition, Map<String,
             BoardEntity> boardData, int boardSize) {
-        int visibleFoodPoints = 0;
-        EntityPosition position = entityPosition.newPosition(entityPosition, dir);
-        while (board.checkPosition(position)) {
-            BoardEntity entity = boardData.get(position.toString());
-            if (entity instanceof FoodPoint) {
-                visibleFoodPoints += ((FoodPoint) entity).getValue();
-            }
-            position = position.newPosition(position, dir);
-        }
-        return visibleFoodPoints;
+        return board.getVisibleFoodPoints(entityPosition, dir, 1);
     }
  
     @Override
@@ -870,15 +801,41 @@ class Spider extends Insect implements DiagonalMoving {
 class Board {
     private Map<String, BoardEntity> boardData;
     private int size;
+    private LineIndex lineIndex;
+    private BoardStore store;
+    private List<BoardListener> listeners;
  
     /**
-     * Constructor for creating a game board with a specified size.
+     * Constructor for creating a game board with a specified size,
+     * keeping food in the cell layouts configured by {@link CellLayout#configured()}.
      *
      * @param boardSize The size of the game board.
      */
     public Board(int boardSize) {
+        this(boardSize, CellLayout.configured());
+    }
+ 
+    /**
+     * Constructor for creating a game board with a specified size and food cell layouts.
+     *
+     * @param boardSize The size of the game board.
+     * @param layouts   The cell layouts kept in addition to the row-major one.
+     */
+    public Board(int boardSize, Set<CellLayout> layouts) {
         this.boardData = new HashMap<>();
         this.size = boardSize;
+        this.lineIndex = new LineIndex(boardSize);
+        this.store = new BoardStore(boardSize, layouts);
+        this.listeners = new ArrayList<>();
+    }
+ 
+    /**
+     * Registers a listener notified of every entity added to or removed from the board.
+     *
+     * @param listener The listener to register.
+     */
+    public void addListener(BoardListener listener) {
+        listeners.add(listener);
     }
  
     /**
@@ -909,6 +866,69 @@ class Board {
             throw new TwoEntitiesOnSamePositionException();
         }
         boardData.put(entity.getEntityPosition().toString(), entity);
+        if (entity instanceof FoodPoint) {
+            lineIndex.add(entity.getEntityPosition());
+            store.add(entity.getEntityPosition(), ((FoodPoint) entity).getValue());
+        }
+        for (BoardListener listener : listeners) {
+            listener.entityAdded(entity);
+        }
+    }
+ 
+    /**
+     * Places food points that were already validated by the food section loader
+     * and merges their precomputed line counts into the board's line index.
+     *
+     * @param foodPoints The validated food points, in input order.
+     * @param foodLines  The line counts of the given food points.
+     */
+    void placeFoodPoints(FoodPoint[] foodPoints, LineIndex foodLines) {
+        for (FoodPoint foodPoint : foodPoints) {
+            boardData.put(foodPoint.getEntityPosition().toString(), foodPoint);
+            store.add(foodPoint.getEntityPosition(), foodPoint.getValue());
+            foodPoint.setBoard(this);
+        }
+        lineIndex.merge(foodLines);
+        for (BoardListener listener : listeners) {
+            for (FoodPoint foodPoint : foodPoints) {
+                listener.entityAdded(foodPoint);
+            }
+        }
+    }
+ 
+    /**
+     * Gets the entities currently placed on the board.
+     *
+     * @return An unmodifiable view of the board entities.
+     */
+    public Collection<BoardEntity> getEntities() {
+        return Collections.unmodifiableCollection(boardData.values());
+    }
+ 
+    /**
+     * Checks whether any food is left on the line that passes through a position in a direction.
+     *
+     * @param position The position the line passes through.
+     * @param dir      The direction of the line.
+     * @return True if the line holds food, otherwise false.
+     */
+    public boolean hasFoodOnLine(EntityPosition position, Direction dir) {
+        return lineIndex.getLineFoodCount(position, dir) > 0;
+    }
+ 
+    /**
+     * Gets the food visible from a position in a direction, looking at every step-th cell of the ray.
+     *
+     * @param position The position the ray starts from, excluded from the sum.
+     * @param dir      The direction of the ray.
+     * @param step     The number of cells between two visited cells.
+     * @return The total value of the food points on the visited cells.
+     */
+    public int getVisibleFoodPoints(EntityPosition position, Direction dir, int step) {
+        if (!hasFoodOnLine(position, dir)) {
+            return 0;
+        }
+        return store.raySum(position.getX(), position.getY(), dir, step);
     }
  
     /**
@@ -938,6 +958,17 @@ class Board {
      */
     public int getDirectionVisibleFoodPoints(Insect insect) {
         Direction direction = getDirection(insect);
+        return travel(insect, direction);
+    }
+ 
+    /**
+     * Moves an insect in a given direction, collecting the food on its way.
+     *
+     * @param insect    The insect to move.
+     * @param direction The direction in which the insect travels.
+     * @return The food points collected by the insect.
+     */
+    public int travel(Insect insect, Direction direction) {
         return insect.travelDirection(direction, boardData, size);
     }
  
@@ -947,7 +978,16 @@ class Board {
      * @param position The position at which to remove the entity.
      */
     public void removeEntity(EntityPosition position) {
-        boardData.remove(position.toString());
+        BoardEntity entity = boardData.remove(position.toString());
+        if (entity instanceof FoodPoint) {
+            lineIndex.remove(position);
+            store.remove(position, ((FoodPoint) entity).getValue());
+        }
+        if (entity != null) {
+            for (BoardListener listener : listeners) {
+                listener.entityRemoved(entity);
+            }
+        }
     }
     /**
      * Gets the size of the board.
@@ -1117,4 +1157,1232 @@ class FoodPoint extends BoardEntity {
     public int getValue() {
         return value;
     }
+}
+ 
+/**
+ * Keeps the number of food points of every row, column, diagonal and anti-diagonal of the board.
+ * Rows are indexed by x, columns by y, diagonals by x - y and anti-diagonals by x + y.
+ */
+class LineIndex {
+    private final int size;
+    private final int[] rowCounts;
+    private final int[] columnCounts;
+    private final int[] diagonalCounts;
+    private final int[] antiDiagonalCounts;
+ 
+    /**
+     * Constructs an empty line index for a board of the given size.
+     *
+     * @param size The size of the game board.
+     */
+    public LineIndex(int size) {
+        this.size = size;
+        this.rowCounts = new int[size];
+        this.columnCounts = new int[size];
+        this.diagonalCounts = new int[2 * size - 1];
+        this.antiDiagonalCounts = new int[2 * size - 1];
+    }
+ 
+    /**
+     * Counts a food point on every line passing through its position.
+     *
+     * @param position The position of the food point.
+     */
+    public void add(EntityPosition position) {
+        update(position.getX(), position.getY(), 1);
+    }
+ 
+    /**
+     * Stops counting a food point on every line passing through its position.
+     *
+     * @param position The position of the food point.
+     */
+    public void remove(EntityPosition position) {
+        update(position.getX(), position.getY(), -1);
+    }
+ 
+    private void update(int x, int y, int countDelta) {
+        rowCounts[x - 1] += countDelta;
+        columnCounts[y - 1] += countDelta;
+        diagonalCounts[x - y + size - 1] += countDelta;
+        antiDiagonalCounts[x + y - 2] += countDelta;
+    }
+ 
+    /**
+     * Adds the counts of another index of the same board size to this one.
+     *
+     * @param other The index to merge into this one.
+     * @return This index.
+     */
+    public LineIndex merge(LineIndex other) {
+        for (int i = 0; i < rowCounts.length; i++) {
+            rowCounts[i] += other.rowCounts[i];
+            columnCounts[i] += other.columnCounts[i];
+        }
+        for (int i = 0; i < diagonalCounts.length; i++) {
+            diagonalCounts[i] += other.diagonalCounts[i];
+            antiDiagonalCounts[i] += other.antiDiagonalCounts[i];
+        }
+        return this;
+    }
+ 
+    /**
+     * Gets the number of food points on the line passing through a position in a direction.
+     * Food values may be negative, so a line total of zero or less does not mean the line is empty.
+     *
+     * @param position The position the line passes through.
+     * @param dir      The direction of the line.
+     * @return The number of food points on the whole line.
+     */
+    public int getLineFoodCount(EntityPosition position, Direction dir) {
+        int x = position.getX();
+        int y = position.getY();
+        switch (dir) {
+            case N:
+            case S:
+                return columnCounts[y - 1];
+            case E:
+            case W:
+                return rowCounts[x - 1];
+            case SE:
+            case NW:
+                return diagonalCounts[x - y + size - 1];
+            case NE:
+            case SW:
+                return antiDiagonalCounts[x + y - 2];
+            default:
+                return 0;
+        }
+    }
+}
+ 
+/**
+ * Loads the food section of the input in parallel chunks.
+ * Lines are parsed and validated concurrently, the first failing line in input order decides
+ * which exception is thrown, and the line counts are built with fork-join before the food points
+ * are placed on the board in input order.
+ */
+final class FoodSectionLoader {
+    private static final int CHUNK_SIZE = 4096;
+ 
+    private FoodSectionLoader() {
+    }
+ 
+    /**
+     * Parses, validates and places the food points of the input on the board.
+     *
+     * @param board      The board holding the already placed insects.
+     * @param input      The input lines.
+     * @param offset     The index of the first food line.
+     * @param foodNumber The number of food lines.
+     * @throws Exception The exception the first failing food line raises, as when reading line by line.
+     */
+    public static void load(Board board, String[] input, int offset, int foodNumber) throws Exception {
+        int size = board.getSize();
+        FoodPoint[] foodPoints = new FoodPoint[foodNumber];
+        Exception[] errors = new Exception[foodNumber];
+        AtomicIntegerArray firstLine = new AtomicIntegerArray(size * size);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+ 
+        pool.invoke(new ChunkTask(0, foodNumber, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                try {
+                    foodPoints[i] = parseFoodPoint(board, input[i + offset]);
+                } catch (Exception e) {
+                    errors[i] = e;
+                }
+            }
+        }));
+        pool.invoke(new ChunkTask(0, foodNumber, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                if (foodPoints[i] != null) {
+                    claimPosition(firstLine, cellOf(foodPoints[i], size), i + 1);
+                }
+            }
+        }));
+        pool.invoke(new ChunkTask(0, foodNumber, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                FoodPoint foodPoint = foodPoints[i];
+                if (foodPoint != null && (firstLine.get(cellOf(foodPoint, size)) != i + 1
+                        || board.getEntity(foodPoint.getEntityPosition()) != null)) {
+                    errors[i] = new TwoEntitiesOnSamePositionException();
+                }
+            }
+        }));
+        for (Exception error : errors) {
+            if (error != null) {
+                throw error;
+            }
+        }
+ 
+        LineIndex foodLines = pool.invoke(new LineIndexTask(size, foodPoints, 0, foodNumber));
+        board.placeFoodPoints(foodPoints, foodLines);
+    }
+ 
+    private static FoodPoint parseFoodPoint(Board board, String line) throws InvalidEntityPositionException {
+        String[] foodInfo = line.split(" ");
+        int amount = Integer.parseInt(foodInfo[0]);
+        int x = Integer.parseInt(foodInfo[1]);
+        int y = Integer.parseInt(foodInfo[2]);
+        EntityPosition position = EntityPosition.getPosition(x, y);
+        if (!board.checkPosition(position)) {
+            throw new InvalidEntityPositionException();
+        }
+        return new FoodPoint(position, amount);
+    }
+ 
+    private static int cellOf(FoodPoint foodPoint, int size) {
+        EntityPosition position = foodPoint.getEntityPosition();
+        return (position.getX() - 1) * size + position.getY() - 1;
+    }
+ 
+    /**
+     * Records the smallest line number claiming a cell, so the earliest line keeps the cell
+     * regardless of which chunk gets there first.
+     */
+    private static void claimPosition(AtomicIntegerArray firstLine, int cell, int lineNumber) {
+        int claimed = firstLine.get(cell);
+        while ((claimed == 0 || claimed > lineNumber) && !firstLine.compareAndSet(cell, claimed, lineNumber)) {
+            claimed = firstLine.get(cell);
+        }
+    }
+ 
+    /**
+     * Work applied to one chunk of food lines.
+     */
+    private interface ChunkWork {
+        void run(int from, int to);
+    }
+ 
+    /**
+     * Splits a range of food lines into chunks and runs the work on each of them.
+     */
+    private static class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+ 
+        private final int from;
+        private final int to;
+        private final ChunkWork work;
+ 
+        ChunkTask(int from, int to, ChunkWork work) {
+            this.from = from;
+            this.to = to;
+            this.work = work;
+        }
+ 
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK_SIZE) {
+                work.run(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ChunkTask(from, middle, work), new ChunkTask(middle, to, work));
+        }
+    }
+ 
+    /**
+     * Builds the line counts of a range of food points and merges both halves.
+     */
+    private static class LineIndexTask extends RecursiveTask<LineIndex> {
+        private static final long serialVersionUID = 1L;
+ 
+        private final int size;
+        private final FoodPoint[] foodPoints;
+        private final int from;
+        private final int to;
+ 
+        LineIndexTask(int size, FoodPoint[] foodPoints, int from, int to) {
+            this.size = size;
+            this.foodPoints = foodPoints;
+            this.from = from;
+            this.to = to;
+        }
+ 
+        @Override
+        protected LineIndex compute() {
+            if (to - from <= CHUNK_SIZE) {
+                LineIndex lineIndex = new LineIndex(size);
+                for (int i = from; i < to; i++) {
+                    lineIndex.add(foodPoints[i].getEntityPosition());
+                }
+                return lineIndex;
+            }
+            int middle = (from + to) >>> 1;
+            LineIndexTask right = new LineIndexTask(size, foodPoints, middle, to);
+            right.fork();
+            LineIndex left = new LineIndexTask(size, foodPoints, from, middle).compute();
+            return left.merge(right.join());
+        }
+    }
+}
+ 
+/**
+ * Enum representing the memory layouts the board can keep its food cells in.
+ * Each layout stores one family of lines contiguously.
+ */
+enum CellLayout {
+    ROW_MAJOR,
+    COLUMN_MAJOR,
+    DIAGONAL_MAJOR,
+    ANTI_DIAGONAL_MAJOR;
+ 
+    /**
+     * System property listing the layouts to keep, separated by commas.
+     */
+    public static final String LAYOUTS_PROPERTY = "board.layouts";
+ 
+    /**
+     * Gets the layouts configured through the {@value #LAYOUTS_PROPERTY} system property.
+     * The row-major layout is always kept and is the only one when the property is not set,
+     * as every other layout costs one more int per cell.
+     *
+     * @return The configured layouts.
+     */
+    public static Set<CellLayout> configured() {
+        String property = System.getProperty(LAYOUTS_PROPERTY);
+        if (property == null || property.isBlank()) {
+            return EnumSet.of(ROW_MAJOR);
+        }
+        Set<CellLayout> layouts = EnumSet.of(ROW_MAJOR);
+        for (String name : property.split(",")) {
+            layouts.add(CellLayout.valueOf(name.trim().toUpperCase()));
+        }
+        return layouts;
+    }
+ 
+    /**
+     * Gets the layout in which a ray in the given direction reads contiguous cells.
+     *
+     * @param dir The direction of the ray.
+     * @return The layout storing the lines of that direction contiguously.
+     */
+    public static CellLayout alignedWith(Direction dir) {
+        switch (dir) {
+            case N:
+            case S:
+                return COLUMN_MAJOR;
+            case SE:
+            case NW:
+                return DIAGONAL_MAJOR;
+            case NE:
+            case SW:
+                return ANTI_DIAGONAL_MAJOR;
+            default:
+                return ROW_MAJOR;
+        }
+    }
+}
+ 
+/**
+ * Dense food values of the board kept in one or more cell layouts.
+ * The row-major copy is always kept, and every other enabled layout mirrors it so that rays along
+ * columns, diagonals or anti-diagonals read contiguous memory, at the cost of one int per cell per layout.
+ * Rays whose layout is disabled are read from the row-major copy with a stride.
+ */
+class BoardStore {
+    private final int size;
+    private final int[][] cells;
+    private final int[] lineStart;
+ 
+    /**
+     * Constructs an empty store for a board of the given size.
+     *
+     * @param size    The size of the game board.
+     * @param layouts The layouts to keep in addition to the row-major one.
+     */
+    public BoardStore(int size, Set<CellLayout> layouts) {
+        this.size = size;
+        this.cells = new int[CellLayout.values().length][];
+        cells[CellLayout.ROW_MAJOR.ordinal()] = new int[size * size];
+        for (CellLayout layout : layouts) {
+            cells[layout.ordinal()] = new int[size * size];
+        }
+        this.lineStart = new int[2 * size - 1];
+        for (int line = 1; line < lineStart.length; line++) {
+            lineStart[line] = lineStart[line - 1] + size - Math.abs(line - 1 - (size - 1));
+        }
+    }
+ 
+    /**
+     * Checks if the store keeps a given layout.
+     *
+     * @param layout The layout to check.
+     * @return True if the layout is kept, otherwise false.
+     */
+    public boolean hasLayout(CellLayout layout) {
+        return cells[layout.ordinal()] != null;
+    }
+ 
+    /**
+     * Adds a food value to a cell in every kept layout.
+     *
+     * @param position The position of the cell.
+     * @param value    The food value to add.
+     */
+    public void add(EntityPosition position, int value) {
+        update(position.getX(), position.getY(), value);
+    }
+ 
+    /**
+     * Removes a food value from a cell in every kept layout.
+     *
+     * @param position The position of the cell.
+     * @param value    The food value to remove.
+     */
+    public void remove(EntityPosition position, int value) {
+        update(position.getX(), position.getY(), -value);
+    }
+ 
+    private void update(int x, int y, int delta) {
+        for (CellLayout layout : CellLayout.values()) {
+            int[] layoutCells = cells[layout.ordinal()];
+            if (layoutCells != null) {
+                layoutCells[index(layout, x, y)] += delta;
+            }
+        }
+    }
+ 
+    private int index(CellLayout layout, int x, int y) {
+        switch (layout) {
+            case COLUMN_MAJOR:
+                return (y - 1) * size + x - 1;
+            case DIAGONAL_MAJOR:
+                return lineStart[x - y + size - 1] + Math.min(x, y) - 1;
+            case ANTI_DIAGONAL_MAJOR:
+                int line = x + y - 2;
+                return lineStart[line] + x - Math.max(1, line + 2 - size);
+            default:
+                return (x - 1) * size + y - 1;
+        }
+    }
+ 
+    /**
+     * Sums the food on every step-th cell of the ray starting next to a cell.
+     *
+     * @param x    The x-coordinate of the starting cell.
+     * @param y    The y-coordinate of the starting cell.
+     * @param dir  The direction of the ray.
+     * @param step The number of cells between two visited cells.
+     * @return The total food value on the visited cells.
+     */
+    public int raySum(int x, int y, Direction dir, int step) {
+        int length;
+        int dx = 0;
+        int dy = 0;
+        switch (dir) {
+            case N:
+                length = x - 1;
+                dx = -1;
+                break;
+            case S:
+                length = size - x;
+                dx = 1;
+                break;
+            case W:
+                length = y - 1;
+                dy = -1;
+                break;
+            case E:
+                length = size - y;
+                dy = 1;
+                break;
+            case NE:
+                length = Math.min(x - 1, size - y);
+                dx = -1;
+                dy = 1;
+                break;
+            case SE:
+                length = size - Math.max(x, y);
+                dx = 1;
+                dy = 1;
+                break;
+            case SW:
+                length = Math.min(size - x, y - 1);
+                dx = 1;
+                dy = -1;
+                break;
+            case NW:
+                length = Math.min(x, y) - 1;
+                dx = -1;
+                dy = -1;
+                break;
+            default:
+                return 0;
+        }
+ 
+        CellLayout layout = CellLayout.alignedWith(dir);
+        int delta;
+        if (hasLayout(layout)) {
+            delta = layout == CellLayout.ROW_MAJOR ? dy : dx;
+        } else {
+            layout = CellLayout.ROW_MAJOR;
+            delta = dx * size + dy;
+        }
+        int[] layoutCells = cells[layout.ordinal()];
+        int stride = delta * step;
+        int index = index(layout, x, y);
+        int sum = 0;
+        for (int visited = length / step; visited > 0; visited--) {
+            index += stride;
+            sum += layoutCells[index];
+        }
+        return sum;
+    }
+}
+ 
+/**
+ * Measures ray scans over the board store for each cell layout configuration.
+ * Run it with {@code java -cp <classes> LayoutBenchmark [boardSize] [foodDensityPercent]}.
+ */
+class LayoutBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+ 
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int density = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        Random random = new Random(42);
+        List<int[]> food = new ArrayList<>();
+        for (int x = 1; x <= size; x++) {
+            for (int y = 1; y <= size; y++) {
+                if (random.nextInt(100) < density) {
+                    food.add(new int[] {x, y, random.nextInt(9) + 1});
+                }
+            }
+        }
+ 
+        List<Set<CellLayout>> configurations = new ArrayList<>();
+        configurations.add(EnumSet.of(CellLayout.ROW_MAJOR));
+        for (CellLayout layout : CellLayout.values()) {
+            if (layout != CellLayout.ROW_MAJOR) {
+                configurations.add(EnumSet.of(CellLayout.ROW_MAJOR, layout));
+            }
+        }
+        configurations.add(EnumSet.allOf(CellLayout.class));
+ 
+        for (Set<CellLayout> layouts : configurations) {
+            BoardStore store = new BoardStore(size, layouts);
+            for (int[] cell : food) {
+                store.add(new EntityPosition(cell[0], cell[1]), cell[2]);
+            }
+            long memory = (long) layouts.size() * size * size * Integer.BYTES;
+            StringBuilder line = new StringBuilder(layouts.toString()).append(" ").append(memory >> 10).append("KB");
+            for (Direction dir : Direction.values()) {
+                line.append(' ').append(dir).append('=').append(measure(store, size, dir)).append("ns");
+            }
+            System.out.println(line);
+        }
+    }
+ 
+    private static long measure(BoardStore store, int size, Direction dir) {
+        long sink = 0;
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int x = 1; x <= size; x += 7) {
+                for (int y = 1; y <= size; y += 7) {
+                    sink += store.raySum(x, y, dir, 1);
+                }
+            }
+            long perRay = (System.nanoTime() - start) / (((size + 6) / 7) * ((size + 6) / 7));
+            if (round >= WARMUP_ROUNDS) {
+                best = Math.min(best, perRay);
+            }
+        }
+        if (sink == Long.MIN_VALUE) {
+            System.out.println(sink);
+        }
+        return best;
+    }
+}
+ 
+/**
+ * Interface for objects notified of the changes made to a board.
+ */
+interface BoardListener {
+ 
+    /**
+     * Called after an entity is placed on the board.
+     *
+     * @param entity The entity that was added.
+     */
+    void entityAdded(BoardEntity entity);
+ 
+    /**
+     * Called after an entity is taken off the board.
+     *
+     * @param entity The entity that was removed.
+     */
+    void entityRemoved(BoardEntity entity);
+}
+ 
+/**
+ * Runs the game over many rounds.
+ * In every round each insect travels in its best direction and goes back to its cell, and every food point
+ * eaten comes back to its cell a fixed number of rounds later. The best direction of an insect is only
+ * computed again when food changed on one of the lines it looks along, which the engine learns from
+ * board notifications, so the work of a round follows the number of changes rather than the board size.
+ */
+class SimulationEngine implements BoardListener {
+    private final Board board;
+    private final List<Insect> insects;
+    private final int respawnDelay;
+    private final Direction[] decisions;
+    private final boolean[] dirty;
+    private final long[] collectedFood;
+    private final int[][] rowInsects;
+    private final int[][] columnInsects;
+    private final int[][] diagonalInsects;
+    private final int[][] antiDiagonalInsects;
+    private final Map<Integer, List<FoodPoint>> respawns;
+    private int round;
+    private long reevaluations;
+ 
+    /**
+     * Constructs an engine for insects that are already placed on the board.
+     *
+     * @param board        The board the insects play on.
+     * @param insects      The insects, in the order they move in every round.
+     * @param respawnDelay The number of rounds after which eaten food comes back.
+     */
+    public SimulationEngine(Board board, List<Insect> insects, int respawnDelay) {
+        this.board = board;
+        this.insects = new ArrayList<>(insects);
+        this.respawnDelay = Math.max(1, respawnDelay);
+        this.decisions = new Direction[insects.size()];
+        this.dirty = new boolean[insects.size()];
+        this.collectedFood = new long[insects.size()];
+        this.respawns = new HashMap<>();
+        Arrays.fill(dirty, true);
+ 
+        int size = board.getSize();
+        List<List<Integer>> rows = emptyLines(size);
+        List<List<Integer>> columns = emptyLines(size);
+        List<List<Integer>> diagonals = emptyLines(2 * size - 1);
+        List<List<Integer>> antiDiagonals = emptyLines(2 * size - 1);
+        for (int i = 0; i < this.insects.size(); i++) {
+            Insect insect = this.insects.get(i);
+            int x = insect.getEntityPosition().getX();
+            int y = insect.getEntityPosition().getY();
+            if (insect instanceof OrthogonalMoving) {
+                rows.get(x - 1).add(i);
+                columns.get(y - 1).add(i);
+            }
+            if (insect instanceof DiagonalMoving) {
+                diagonals.get(x - y + size - 1).add(i);
+                antiDiagonals.get(x + y - 2).add(i);
+            }
+        }
+        this.rowInsects = toArrays(rows);
+        this.columnInsects = toArrays(columns);
+        this.diagonalInsects = toArrays(diagonals);
+        this.antiDiagonalInsects = toArrays(antiDiagonals);
+        board.addListener(this);
+    }
+ 
+    private static List<List<Integer>> emptyLines(int count) {
+        List<List<Integer>> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add(new ArrayList<>());
+        }
+        return lines;
+    }
+ 
+    private static int[][] toArrays(List<List<Integer>> lines) {
+        int[][] arrays = new int[lines.size()][];
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = lines.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+        return arrays;
+    }
+ 
+    /**
+     * Plays a number of rounds.
+     *
+     * @param rounds The number of rounds to play.
+     * @throws TwoEntitiesOnSamePositionException If an insect cannot go back to its cell.
+     */
+    public void play(int rounds) throws TwoEntitiesOnSamePositionException {
+        for (int i = 0; i < rounds; i++) {
+            playRound();
+        }
+    }
+ 
+    /**
+     * Plays one round: brings back the food due this round, then lets every insect travel and go back to its cell.
+     *
+     * @throws TwoEntitiesOnSamePositionException If an insect cannot go back to its cell.
+     */
+    public void playRound() throws TwoEntitiesOnSamePositionException {
+        round++;
+        respawnFood();
+        for (int i = 0; i < insects.size(); i++) {
+            Insect insect = insects.get(i);
+            collectedFood[i] += board.travel(insect, getDecision(i));
+            board.addEntity(insect);
+        }
+    }
+ 
+    /**
+     * Gets the direction an insect travels in, computing it again only if its lines changed.
+     *
+     * @param insectIndex The index of the insect.
+     * @return The best direction of the insect.
+     */
+    public Direction getDecision(int insectIndex) {
+        if (dirty[insectIndex]) {
+            decisions[insectIndex] = board.getDirection(insects.get(insectIndex));
+            dirty[insectIndex] = false;
+            reevaluations++;
+        }
+        return decisions[insectIndex];
+    }
+ 
+    private void respawnFood() throws TwoEntitiesOnSamePositionException {
+        List<FoodPoint> due = respawns.remove(round);
+        if (due == null) {
+            return;
+        }
+        for (FoodPoint foodPoint : due) {
+            if (board.getEntity(foodPoint.getEntityPosition()) == null) {
+                board.addEntity(foodPoint);
+            } else {
+                respawns.computeIfAbsent(round + 1, r -> new ArrayList<>()).add(foodPoint);
+            }
+        }
+    }
+ 
+    @Override
+    public void entityAdded(BoardEntity entity) {
+        if (entity instanceof FoodPoint) {
+            markLinesDirty(entity.getEntityPosition());
+        }
+    }
+ 
+    @Override
+    public void entityRemoved(BoardEntity entity) {
+        if (entity instanceof FoodPoint) {
+            markLinesDirty(entity.getEntityPosition());
+            respawns.computeIfAbsent(round + respawnDelay, r -> new ArrayList<>()).add((FoodPoint) entity);
+        }
+    }
+ 
+    private void markLinesDirty(EntityPosition position) {
+        int x = position.getX();
+        int y = position.getY();
+        int size = board.getSize();
+        markDirty(rowInsects[x - 1]);
+        markDirty(columnInsects[y - 1]);
+        markDirty(diagonalInsects[x - y + size - 1]);
+        markDirty(antiDiagonalInsects[x + y - 2]);
+    }
+ 
+    private void markDirty(int[] insectIndexes) {
+        for (int insectIndex : insectIndexes) {
+            dirty[insectIndex] = true;
+        }
+    }
+ 
+    /**
+     * Gets the total food an insect collected over all played rounds.
+     *
+     * @param insectIndex The index of the insect.
+     * @return The collected food points.
+     */
+    public long getCollectedFood(int insectIndex) {
+        return collectedFood[insectIndex];
+    }
+ 
+    /**
+     * Gets the number of rounds played so far.
+     *
+     * @return The number of played rounds.
+     */
+    public int getRound() {
+        return round;
+    }
+ 
+    /**
+     * Gets how many times a best direction was computed, over all insects and rounds.
+     *
+     * @return The number of direction evaluations.
+     */
+    public long getReevaluations() {
+        return reevaluations;
+    }
+}
+ 
+/**
+ * Represents the outcome of one insect's trip: its color, type, chosen direction and collected food.
+ */
+final class InsectResult {
+    private final InsectColor color;
+    private final String type;
+    private final Direction direction;
+    private final int collectedFood;
+ 
+    /**
+     * Constructs the result of an insect's trip.
+     *
+     * @param color         The color of the insect.
+     * @param type          The type of the insect.
+     * @param direction     The direction in which the insect traveled.
+     * @param collectedFood The food points collected by the insect.
+     */
+    public InsectResult(InsectColor color, String type, Direction direction, int collectedFood) {
+        this.color = color;
+        this.type = type;
+        this.direction = direction;
+        this.collectedFood = collectedFood;
+    }
+ 
+    public InsectColor getColor() {
+        return color;
+    }
+ 
+    public String getType() {
+        return type;
+    }
+ 
+    public Direction getDirection() {
+        return direction;
+    }
+ 
+    public int getCollectedFood() {
+        return collectedFood;
+    }
+ 
+    /**
+     * Generates the output line of the result: color, type, direction and collected food points.
+     *
+     * @return The formatted output line, ending with a line break.
+     */
+    public String toOutputLine() {
+        return color.capitalizeFirstLetter() + ' ' + type + ' ' + direction.getTextRepresentation()
+                + ' ' + collectedFood + ' ' + '\n';
+    }
+}
+ 
+/**
+ * Publishes the result of every insect's trip, in insect order, as subscribers request them.
+ * Each trip is only played when there is demand for its result, so nothing is buffered and a slow
+ * subscriber simply holds the game back. A publisher plays the game once and accepts a single subscriber.
+ */
+class InsectResultPublisher implements Flow.Publisher<InsectResult> {
+    private final Board board;
+    private final List<Insect> insects;
+    private final AtomicInteger subscriptions = new AtomicInteger();
+ 
+    /**
+     * Constructs a publisher for insects that are already placed on the board.
+     *
+     * @param board   The board the insects play on.
+     * @param insects The insects, in the order they travel.
+     */
+    public InsectResultPublisher(Board board, List<Insect> insects) {
+        this.board = board;
+        this.insects = insects;
+    }
+ 
+    @Override
+    public void subscribe(Flow.Subscriber<? super InsectResult> subscriber) {
+        if (subscriptions.getAndIncrement() > 0) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+ 
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("The game was already published"));
+            return;
+        }
+        subscriber.onSubscribe(new TripSubscription(subscriber));
+    }
+ 
+    /**
+     * Plays trips on demand and hands their results to the subscriber.
+     * Whichever thread raises the demand drains it, and only one thread drains at a time.
+     * A trip or subscriber that throws cancels the subscription and is reported through onError.
+     */
+    private class TripSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super InsectResult> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pendingDrains = new AtomicInteger();
+        private volatile boolean cancelled;
+        private int nextInsect;
+ 
+        TripSubscription(Flow.Subscriber<? super InsectResult> subscriber) {
+            this.subscriber = subscriber;
+        }
+ 
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancelled = true;
+                subscriber.onError(new IllegalArgumentException("Requested a non-positive number of results"));
+                return;
+            }
+            demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            drain();
+        }
+ 
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+ 
+        private void drain() {
+            if (pendingDrains.getAndIncrement() > 0) {
+                return;
+            }
+            do {
+                try {
+                    while (!cancelled && demand.get() > 0 && nextInsect < insects.size()) {
+                        Insect insect = insects.get(nextInsect++);
+                        Direction direction = board.getDirection(insect);
+                        int collectedFood = board.travel(insect, direction);
+                        demand.decrementAndGet();
+                        subscriber.onNext(new InsectResult(insect.color, insect.toString(), direction, collectedFood));
+                    }
+                } catch (RuntimeException e) {
+                    cancelled = true;
+                    pendingDrains.set(0);
+                    subscriber.onError(e);
+                    return;
+                }
+                if (!cancelled && nextInsect == insects.size()) {
+                    cancelled = true;
+                    subscriber.onComplete();
+                }
+            } while (pendingDrains.decrementAndGet() > 0);
+        }
+    }
+}
+ 
+/**
+ * Writes published insect results to an output stream as they arrive, requesting them in batches.
+ */
+class ResultStreamWriter implements Flow.Subscriber<InsectResult> {
+    private final OutputStream outputStream;
+    private final int batchSize;
+    private Flow.Subscription subscription;
+    private int receivedInBatch;
+    private IOException writeError;
+ 
+    /**
+     * Constructs a writer for an output stream.
+     *
+     * @param outputStream The stream the result lines are written to.
+     * @param batchSize    The number of results requested at a time.
+     */
+    public ResultStreamWriter(OutputStream outputStream, int batchSize) {
+        this.outputStream = outputStream;
+        this.batchSize = batchSize;
+    }
+ 
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(batchSize);
+    }
+ 
+    @Override
+    public void onNext(InsectResult result) {
+        try {
+            outputStream.write(result.toOutputLine().getBytes());
+        } catch (IOException e) {
+            writeError = e;
+            subscription.cancel();
+            return;
+        }
+        if (++receivedInBatch == batchSize) {
+            receivedInBatch = 0;
+            subscription.request(batchSize);
+        }
+    }
+ 
+    @Override
+    public void onError(Throwable throwable) {
+        writeError = new IOException(throwable.getMessage(), throwable);
+    }
+ 
+    @Override
+    public void onComplete() {
+    }
+ 
+    /**
+     * Rethrows the error that stopped the writer, if any.
+     *
+     * @throws IOException If writing a result failed or the publisher reported an error.
+     */
+    public void checkError() throws IOException {
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+}
+ 
+/**
+ * Answers aggregate food queries over a board without scanning it.
+ * Rectangle totals come from a summed-area table kept in binary indexed form, so that eating a food point
+ * updates it in O(log^2 n) instead of rebuilding the whole table. Diagonal bands use prefix trees over the
+ * diagonal totals, and the richest lines of each family are kept ranked by their totals.
+ * The analytics listen to the board and stay current as insects eat.
+ */
+class BoardAnalytics implements BoardListener {
+    private final int size;
+    private final long[] summedArea;
+    private final long[] diagonalPrefix;
+    private final long[] antiDiagonalPrefix;
+    private final RankedLines rows;
+    private final RankedLines columns;
+    private final RankedLines diagonals;
+    private final RankedLines antiDiagonals;
+ 
+    /**
+     * Constructs analytics over the food currently on a board and starts following its changes.
+     *
+     * @param board The board to analyse.
+     */
+    public BoardAnalytics(Board board) {
+        this.size = board.getSize();
+        this.summedArea = new long[(size + 1) * (size + 1)];
+        this.diagonalPrefix = new long[2 * size];
+        this.antiDiagonalPrefix = new long[2 * size];
+        long[] rowTotals = new long[size];
+        long[] columnTotals = new long[size];
+        long[] diagonalTotals = new long[2 * size - 1];
+        long[] antiDiagonalTotals = new long[2 * size - 1];
+ 
+        for (BoardEntity entity : board.getEntities()) {
+            if (entity instanceof FoodPoint) {
+                int x = entity.getEntityPosition().getX();
+                int y = entity.getEntityPosition().getY();
+                int value = ((FoodPoint) entity).getValue();
+                summedArea[x * (size + 1) + y] += value;
+                rowTotals[x - 1] += value;
+                columnTotals[y - 1] += value;
+                diagonalTotals[x - y + size - 1] += value;
+                antiDiagonalTotals[x + y - 2] += value;
+            }
+        }
+        buildSummedArea();
+        buildPrefix(diagonalPrefix, diagonalTotals);
+        buildPrefix(antiDiagonalPrefix, antiDiagonalTotals);
+        this.rows = new RankedLines(rowTotals);
+        this.columns = new RankedLines(columnTotals);
+        this.diagonals = new RankedLines(diagonalTotals);
+        this.antiDiagonals = new RankedLines(antiDiagonalTotals);
+        board.addListener(this);
+    }
+ 
+    private void buildSummedArea() {
+        int width = size + 1;
+        for (int x = 1; x <= size; x++) {
+            for (int y = 1; y <= size; y++) {
+                int parentY = y + (y & -y);
+                if (parentY <= size) {
+                    summedArea[x * width + parentY] += summedArea[x * width + y];
+                }
+            }
+        }
+        for (int x = 1; x <= size; x++) {
+            int parentX = x + (x & -x);
+            if (parentX <= size) {
+                for (int y = 1; y <= size; y++) {
+                    summedArea[parentX * width + y] += summedArea[x * width + y];
+                }
+            }
+        }
+    }
+ 
+    private static void buildPrefix(long[] prefix, long[] totals) {
+        for (int i = 1; i < prefix.length; i++) {
+            prefix[i] += totals[i - 1];
+            int parent = i + (i & -i);
+            if (parent < prefix.length) {
+                prefix[parent] += prefix[i];
+            }
+        }
+    }
+ 
+    @Override
+    public void entityAdded(BoardEntity entity) {
+        if (entity instanceof FoodPoint) {
+            update(entity.getEntityPosition(), ((FoodPoint) entity).getValue());
+        }
+    }
+ 
+    @Override
+    public void entityRemoved(BoardEntity entity) {
+        if (entity instanceof FoodPoint) {
+            update(entity.getEntityPosition(), -((FoodPoint) entity).getValue());
+        }
+    }
+ 
+    private void update(EntityPosition position, long delta) {
+        int x = position.getX();
+        int y = position.getY();
+        int width = size + 1;
+        for (int i = x; i <= size; i += i & -i) {
+            for (int j = y; j <= size; j += j & -j) {
+                summedArea[i * width + j] += delta;
+            }
+        }
+        addToPrefix(diagonalPrefix, x - y + size, delta);
+        addToPrefix(antiDiagonalPrefix, x + y - 1, delta);
+        rows.add(x - 1, delta);
+        columns.add(y - 1, delta);
+        diagonals.add(x - y + size - 1, delta);
+        antiDiagonals.add(x + y - 2, delta);
+    }
+ 
+    private static void addToPrefix(long[] prefix, int index, long delta) {
+        for (int i = index; i < prefix.length; i += i & -i) {
+            prefix[i] += delta;
+        }
+    }
+ 
+    private static long prefixSum(long[] prefix, int index) {
+        long sum = 0;
+        for (int i = Math.min(index, prefix.length - 1); i > 0; i -= i & -i) {
+            sum += prefix[i];
+        }
+        return sum;
+    }
+ 
+    private long summedAreaTo(int x, int y) {
+        long sum = 0;
+        int width = size + 1;
+        for (int i = Math.min(x, size); i > 0; i -= i & -i) {
+            for (int j = Math.min(y, size); j > 0; j -= j & -j) {
+                sum += summedArea[i * width + j];
+            }
+        }
+        return sum;
+    }
+ 
+    /**
+     * Gets the total food in a rectangle of the board, clipped to the board.
+     *
+     * @param fromX The smallest x-coordinate of the rectangle.
+     * @param fromY The smallest y-coordinate of the rectangle.
+     * @param toX   The largest x-coordinate of the rectangle.
+     * @param toY   The largest y-coordinate of the rectangle.
+     * @return The total food value inside the rectangle.
+     */
+    public long getRectangleFood(int fromX, int fromY, int toX, int toY) {
+        fromX = Math.max(fromX, 1);
+        fromY = Math.max(fromY, 1);
+        if (fromX > toX || fromY > toY) {
+            return 0;
+        }
+        return summedAreaTo(toX, toY) - summedAreaTo(fromX - 1, toY)
+                - summedAreaTo(toX, fromY - 1) + summedAreaTo(fromX - 1, fromY - 1);
+    }
+ 
+    /**
+     * Gets the total food on the diagonals whose x - y lies in a range.
+     *
+     * @param minDifference The smallest x - y of the band.
+     * @param maxDifference The largest x - y of the band.
+     * @return The total food value inside the band.
+     */
+    public long getDiagonalBandFood(int minDifference, int maxDifference) {
+        int from = Math.max(minDifference + size, 1);
+        int to = maxDifference + size;
+        return from > to ? 0 : prefixSum(diagonalPrefix, to) - prefixSum(diagonalPrefix, from - 1);
+    }
+ 
+    /**
+     * Gets the total food on the anti-diagonals whose x + y lies in a range.
+     *
+     * @param minSum The smallest x + y of the band.
+     * @param maxSum The largest x + y of the band.
+     * @return The total food value inside the band.
+     */
+    public long getAntiDiagonalBandFood(int minSum, int maxSum) {
+        int from = Math.max(minSum - 1, 1);
+        int to = maxSum - 1;
+        return from > to ? 0 : prefixSum(antiDiagonalPrefix, to) - prefixSum(antiDiagonalPrefix, from - 1);
+    }
+ 
+    /**
+     * Gets the rows holding the most food, richest first.
+     *
+     * @param k The number of rows to return.
+     * @return The x-coordinates of the richest rows.
+     */
+    public int[] getRichestRows(int k) {
+        return rows.top(k, 1);
+    }
+ 
+    /**
+     * Gets the columns holding the most food, richest first.
+     *
+     * @param k The number of columns to return.
+     * @return The y-coordinates of the richest columns.
+     */
+    public int[] getRichestColumns(int k) {
+        return columns.top(k, 1);
+    }
+ 
+    /**
+     * Gets the diagonals holding the most food, richest first.
+     *
+     * @param k The number of diagonals to return.
+     * @return The x - y values of the richest diagonals.
+     */
+    public int[] getRichestDiagonals(int k) {
+        return diagonals.top(k, 1 - size);
+    }
+ 
+    /**
+     * Gets the anti-diagonals holding the most food, richest first.
+     *
+     * @param k The number of anti-diagonals to return.
+     * @return The x + y values of the richest anti-diagonals.
+     */
+    public int[] getRichestAntiDiagonals(int k) {
+        return antiDiagonals.top(k, 2);
+    }
+ 
+    /**
+     * Keeps the lines of one family ordered by total food, richest first and lowest index on ties.
+     */
+    private static class RankedLines {
+        private final long[] totals;
+        private final TreeSet<Integer> ranking;
+ 
+        RankedLines(long[] totals) {
+            this.totals = totals;
+            this.ranking = new TreeSet<>((a, b) -> totals[a] != totals[b]
+                    ? Long.compare(totals[b], totals[a]) : Integer.compare(a, b));
+            for (int line = 0; line < totals.length; line++) {
+                ranking.add(line);
+            }
+        }
+ 
+        void add(int line, long delta) {
+            ranking.remove(line);
+            totals[line] += delta;
+            ranking.add(line);
+        }
+ 
+        int[] top(int k, int firstLineNumber) {
+            int[] lines = new int[Math.min(Math.max(k, 0), totals.length)];
+            int i = 0;
+            for (int line : ranking) {
+                if (i == lines.length) {
+                    break;
+                }
+                lines[i++] = line + firstLineNumber;
+            }
+            return lines;
+        }
+    }
 }
\ No newline at end of file
@@ -1,6 +1,77 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+import java.util.zip.CRC32;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+ 
+import com.sun.net.httpserver.HttpServer;
  
  
 /**
@@ -15,68 +86,129 @@ import java.util.Scanner;
  */
  
 public class UniversityCoursesManagementSystem {
-    private static boolean error = true;
- 
-    private static List<Course> courses = new ArrayList<>();
-    private static List<Student> students = new ArrayList<>();
-    private static List<Professor> professors = new ArrayList<>();
+    private static final int RESPONSE_BUFFER_SIZE = 1 << 16;
+    private static IdRegistry<Course> courses = new IdRegistry<>(Course::getCourseId);
+    private static IdRegistry<Student> students = new IdRegistry<>(Student::getMemberID);
+    private static IdRegistry<Professor> professors = new IdRegistry<>(Professor::getMemberID);
+    private static final ConcurrentEnrollmentEngine engine =
+            new ConcurrentEnrollmentEngine(students, professors, courses);
+    private static Map<String, Course> coursesByName = new ConcurrentHashMap<>();
+    private static final CommandMetrics metrics = new CommandMetrics();
     private static Scanner scanner = new Scanner(System.in);
+    private static CommandSession console = new CommandSession(LineSource.of(scanner), System.out, null);
+    private static final RosterQueries queries = new RosterQueries();
+    private static final RegistrationAggregates aggregates = new RegistrationAggregates();
+    private static final RegistrationEventBus events =
+            new RegistrationEventBus(Integer.getInteger("ucms.events.capacity", 1 << 16));
+    private static final List<RegistrationListener> listeners =
+            new CopyOnWriteArrayList<>(Arrays.asList(queries, aggregates));
+    private static final ThreadLocal<List<RegistrationEvent>> stagedEvents = ThreadLocal.withInitial(ArrayList::new);
+    private static volatile EnrollmentJournal journal;
+    private static SnapshotService snapshots;
  
-    public static void main(String[] args) {
-        fillInitialData();
-        processInput();
+    public static void main(String[] args) throws IOException {
+        metrics.registerMBeans();
+        MetricsEndpoint endpoint = new MetricsEndpoint(metrics, aggregates);
+        String metricsPort = System.getProperty("ucms.metrics.port");
+        if (metricsPort != null) {
+            endpoint.start(Integer.parseInt(metricsPort));
+        }
+        try {
+            run(args);
+        } finally {
+            endpoint.stop();
+        }
     }
  
     /**
-     * Processes input commands from the user.
-     * Uses a loop to continuously accept commands until an error occurs or the input is empty.
-     * Available commands: "course", "student", "professor", "enroll", "drop", "exempt", "teach".
+     * Loads the initial state and runs the mode selected by the arguments.
+     *
+     * @param args The command line arguments.
+     * @throws IOException If the journal, an import file or the server socket cannot be used.
      */
-    public static void processInput() {
-        label:
-        while (error) {
-            String command;
-            if (scanner.hasNextLine()) {
-                command = scanner.nextLine();
-                command = command.toLowerCase();
-            } else {
-                break label;
+    private static void run(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("--shard")) {
+            ShardServer server = new ShardServer(Integer.parseInt(args[1]), new ShardParticipant(createEngine()));
+            System.out.println("listening " + server.getPort());
+            server.serve();
+            return;
+        }
+        if (args.length == 2 && args[0].equals("--cluster")) {
+            try (ShardCluster cluster = new ShardCluster(Integer.parseInt(args[1]))) {
+                runRouter(cluster.getPorts());
             }
-            if (command.isEmpty()) {
-                System.out.println("Wrong inputs");
-                break;
+            return;
+        }
+        if (args.length >= 2 && args[0].equals("--router")) {
+            int[] ports = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                ports[i - 1] = Integer.parseInt(args[i]);
             }
- 
-            switch (command) {
-                case "course":
-                    addCourse();
-                    break;
-                case "student":
-                    addStudent();
-                    break;
-                case "professor":
-                    addProfessor();
-                    break;
-                case "enroll":
-                    enroll();
-                    break;
-                case "drop":
-                    drop();
-                    break;
-                case "exempt":
-                    exempt();
-                    break;
-                case "teach":
-                    teach();
-                    break;
-                default:
-                    System.out.println("Wrong inputs");
-                    error = false;
-                    break label;
+            runRouter(ports);
+            return;
+        }
+        String journalPath = System.getProperty("ucms.journal");
+        if (journalPath != null) {
+            openJournal(Paths.get(journalPath));
+        } else {
+            fillInitialData();
+        }
+        if (args.length == 2 && args[0].equals("--server")) {
+            new CommandServer(Integer.parseInt(args[1]), createEngine()).serve();
+        } else if (args.length == 1 && args[0].equals("--bulk")) {
+            replay(System.in, System.out);
+        } else if (args.length >= 2 && args[0].equals("--import")) {
+            for (int i = 1; i < args.length; i++) {
+                for (ImportError error : CsvImporter.importFile(Paths.get(args[i])).getErrors()) {
+                    System.err.println(args[i] + ":" + error.getLine() + ": " + error.getMessage());
+                }
             }
+            processInput();
+        } else {
+            processInput();
         }
     }
  
+    /**
+     * Runs the console over empty shard processes: the router fills them with the initial data and then
+     * routes every command to them.
+     *
+     * @param ports The ports of the shards, in shard order.
+     * @throws IOException If a shard cannot be reached.
+     */
+    private static void runRouter(int[] ports) throws IOException {
+        try (ShardRouter router = new ShardRouter(ports)) {
+            addListener(router);
+            fillInitialData(router);
+            new CommandSession(LineSource.of(scanner), System.out, router).processInput();
+        }
+    }
+ 
+    /**
+     * Processes input commands from the user.
+     * Uses a loop to continuously accept commands until an error occurs or the input is empty.
+     * Available commands: "course", "student", "professor", "enroll", "drop", "exempt", "teach",
+     * "waitlist", "unwaitlist".
+     */
+    public static void processInput() {
+        console.processInput();
+    }
+ 
+    /**
+     * Replays a stream of commands through the bulk ingestion path.
+     * Commands are decoded straight from a byte buffer and the responses are written to a buffer
+     * flushed in batches, with the same text the console prints.
+     *
+     * @param in  The stream of commands.
+     * @param out The stream the responses are written to.
+     */
+    public static void replay(InputStream in, OutputStream out) {
+        PrintStream responses = new PrintStream(new BufferedOutputStream(out, RESPONSE_BUFFER_SIZE),
+                false, StandardCharsets.UTF_8);
+        new CommandSession(new ByteLineSource(in), responses, createEngine()).processInput();
+        responses.flush();
+    }
+ 
     /**
      * Checks if a string made only from letters.
      *
@@ -84,7 +216,7 @@ public class UniversityCoursesManagementSystem {
      * @return True if the string contains only letters, if else false
      */
     public static boolean containsOnlyLetters(String str) {
-        return str.matches("[a-zA-Z]+");
+        return !str.isEmpty() && containsOnly(str, false);
     }
  
     /**
@@ -115,11 +247,39 @@ public class UniversityCoursesManagementSystem {
             }
         }
         if (hasUnderscore) {
-            return hasUnderscore && letterBeforeUnderscore && str.matches("[a-zA-Z_]+");
+            return hasUnderscore && letterBeforeUnderscore && containsOnly(str, true);
  
         } else {
-            return str.matches("[a-zA-Z_]+");
+            return !str.isEmpty() && containsOnly(str, true);
+        }
+    }
+ 
+    /**
+     * Checks if every character of a string is an ASCII letter, or an underscore when allowed.
+     */
+    private static boolean containsOnly(String str, boolean underscoreAllowed) {
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || underscoreAllowed && c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+ 
+    /**
+     * Checks if a name is one of the command keywords, ignoring case.
+     *
+     * @param name name to check
+     * @return True if the name is a command keyword, if else false
+     */
+    public static boolean isReservedWord(String name) {
+        for (CommandKeyword keyword : CommandKeyword.withLength(name.length())) {
+            if (keyword.isReserved() && name.equalsIgnoreCase(keyword.getWord())) {
+                return true;
+            }
         }
+        return false;
     }
     /**
      * Adds a new student.
@@ -128,32 +288,7 @@ public class UniversityCoursesManagementSystem {
      * Prints messages for success or failure.
      */
     public static void addStudent() {
-        String memberName;
-        if (scanner.hasNextLine()) {
-            memberName = scanner.nextLine();
-            if (!containsOnlyLetters(memberName)) {
-                System.out.println("Wrong inputs");
-                error = false;
-            }
-            if (memberName.equalsIgnoreCase("student")
-                    || memberName.equalsIgnoreCase("course")
-                    || memberName.equalsIgnoreCase("enroll")
-                    || memberName.equalsIgnoreCase("drop")
-                    || memberName.equalsIgnoreCase("professor")
-                    || memberName.equalsIgnoreCase("teach")
-                    || memberName.equalsIgnoreCase("exempt")) {
-                System.out.println("Wrong inputs");
-                error = false;
-            } else {
-                Student newStudent = new Student(memberName);
-                students.add(newStudent);
-                System.out.println("Added successfully");
-            }
- 
-        } else {
-            System.out.println("Wrong inputs");
-            error = false;
-        }
+        console.addStudent();
     }
     /**
      * assigns a professor to teach a course.
@@ -163,51 +298,8 @@ public class UniversityCoursesManagementSystem {
      *
      * @return True if the professor is successfully assigned to teach the course, if else false
      */
-    public static  boolean teach() {
-        try {
-            String professorIDInput;
-            if (scanner.hasNextLine()) {
-                professorIDInput = scanner.nextLine();
-            } else {
-                System.out.println("Wrong inputs");
-                error = false;
-                return error;
-            }
-            int professorID = Integer.parseInt(professorIDInput);
-            Professor professor = findProfessorByID(professorID);
-            if (professor == null) {
-                System.out.println("Wrong inputs");
-                error = false;
-                return error;
-            }
-            String courseIDInput;
-            if (scanner.hasNextLine()) {
-                courseIDInput = scanner.nextLine();
-            } else {
-                System.out.println("Wrong inputs");
-                error = false;
-                return error;
-            }
-            int courseID = Integer.parseInt(courseIDInput);
- 
-            Course course = findCourseByID(courseID);
- 
-            if (course == null) {
-                System.out.println("Wrong inputs");
-                error = false;
-                return error;
-            } else {
-                boolean assigned = professor.teach(course);
-                if (assigned) {
-                    System.out.println("Professor is successfully assigned to teach this course");
-                    return true;
-                }
-            }
-        } catch (NumberFormatException e) {
-            System.out.println("Wrong inputs");
-            error = false;
-        }
-        return true;
+    public static boolean teach() {
+        return console.teach();
     }
  
     /**
@@ -218,52 +310,8 @@ public class UniversityCoursesManagementSystem {
      *
      * @return True if the professor is successfully exempted from teaching the course, if else false
      */
-    public static  boolean exempt() {
-        try {
-            String professorIDInput;
-            if (scanner.hasNextLine()) {
-                professorIDInput = scanner.nextLine();
-            } else {
-                System.out.println("Wrong inputs");
-                error = false;
-                return error;
-            }
-            int professorID = Integer.parseInt(professorIDInput);
-            Professor professor = findProfessorByID(professorID);
-            if (professor == null) {
-                System.out.println("Wrong inputs");
-                error = false;
-                return error;
-            }
-            String courseIDInput;
-            if (scanner.hasNextLine()) {
-                courseIDInput = scanner.nextLine();
-            } else {
-                System.out.println("Wrong inputs");
-                error = false;
-                return false;
-            }
-            int courseID = Integer.parseInt(courseIDInput);
- 
-            Course course = findCourseByID(courseID);
- 
-            if (course == null) {
-                System.out.println("Wrong inputs");
-                error = false;
-                return error;
-            } else {
-                boolean exempted = professor.exempt(course);
-                if (exempted) {
-                    System.out.println("Professor is exempted");
-                    return true;
-                }
-            }
-        } catch (NumberFormatException e) {
-            System.out.println("Wrong inputs");
-            error = false;
-            return error;
-        }
-        return true;
+    public static boolean exempt() {
+        return console.exempt();
     }
     /**
      * drops a student from a course.
@@ -274,50 +322,7 @@ public class UniversityCoursesManagementSystem {
      * @return True if the student is successfully dropped from the course, if else false
      */
     public static boolean drop() {
-        try {
-            String studentIDInput;
-            if (scanner.hasNextLine()) {
-                studentIDInput = scanner.nextLine();
-            } else {
-                System.out.println("Wrong inputs");
-                error = false;
-                return false;
-            }
-            int studentID = Integer.parseInt(studentIDInput);
-            Student student = findStudentByID(studentID);
-            if (student == null) {
-                System.out.println("Wrong inputs");
-                error = false;
-                return error;
-            }
-            String courseIDInput;
-            if (scanner.hasNextLine()) {
-                courseIDInput = scanner.nextLine();
-            } else {
-                System.out.println("Wrong inputs");
-                error = false;
-                return false;
-            }
-            int courseID = Integer.parseInt(courseIDInput);
- 
-            Course course = findCourseByID(courseID);
- 
-            if (course == null) {
-                System.out.println("Wrong inputs");
-                error = false;
-                return error;
-            } else {
-                boolean dropped = student.drop(course);
-                if (dropped) {
-                    System.out.println("Dropped successfully");
-                    return true;
-                }
-            }
-        } catch (NumberFormatException e) {
-            System.out.println("Wrong inputs");
-            error = false;
-        }
-        return true;
+        return console.drop();
     }
     /**
      * enrolls a student from a course.
@@ -328,436 +333,6842 @@ public class UniversityCoursesManagementSystem {
      * @return True if the student is successfully dropped from the course, if else false
      */
     public static boolean enroll() {
-        try {
-            String studentIDInput;
-            if (scanner.hasNextLine()) {
-                studentIDInput = scanner.nextLine();
-            } else {
-                System.out.println("Wrong inputs");
-                error = false;
-                return false;
-            }
-            int studentID = Integer.parseInt(studentIDInput);
-            Student student = findStudentByID(studentID);
-            if (student == null) {
-                System.out.println("Wrong inputs");
-                error = false;
-                return error;
-            }
-            String courseIDInput;
-            if (scanner.hasNextLine()) {
-                courseIDInput = scanner.nextLine();
-            } else {
-                System.out.println("Wrong inputs");
-                error = false;
-                return false;
-            }
-            int courseID = Integer.parseInt(courseIDInput);
- 
-            Course course = findCourseByID(courseID);
- 
-            if (course == null) {
-                System.out.println("Wrong inputs");
-                error = false;
-                return error;
-            } else {
-                boolean enrolled = student.enroll(course);
-                if (enrolled) {
-                    System.out.println("Enrolled successfully");
-                    return true;
-                }
-            }
-        } catch (NumberFormatException e) {
-            System.out.println("Wrong inputs");
-            error = false;
-            return error;
- 
-        }
-        return true;
+        return console.enroll();
     }
     /**
-     * Finds a student in the list of students by their ID.
+     * Finds a student in the registry of students by their ID.
      *
      * @param studentID The ID of the student to search for.
      * @return The student object if found, if else null.
      */
     public static Student findStudentByID(int studentID) {
-        for (Student student : students) {
-            if (student.getMemberID() == studentID) {
-                return student;
-            }
-        }
-        return null;
+        return students.findByID(studentID);
     }
     /**
-     * Finds a professor in the list of professors by their ID.
+     * Finds a professor in the registry of professors by their ID.
      *
      * @param professorID The ID of the professor to search for.
      * @return The professor object if found, if else null.
      */
     public static Professor findProfessorByID(int professorID) {
-        for (Professor professor : professors) {
-            if (professor.getMemberID() == professorID) {
-                return professor;
-            }
-        }
-        return null;
+        return professors.findByID(professorID);
     }
     /**
-     * Finds a course in the list of courses by its ID.
+     * Finds a course in the registry of courses by its ID.
      *
      * @param courseID The ID of the course to search for.
      * @return The course object if found, if else null.
      */
     public static Course findCourseByID(int courseID) {
-        for (Course course : courses) {
-            if (course.getCourseId() == courseID) {
-                return course;
-            }
-        }
-        return null;
+        return courses.findByID(courseID);
     }
     /**
-     * Finds a course in the list of courses by its name.
+     * Finds a course by its name, ignoring case.
      *
      * @param courseName The name of the course to search for.
      * @return The course object if found, if else null.
      */
     public static Course findCourseByName(String courseName) {
-        for (Course course : courses) {
-            if (course.getCourseName().equalsIgnoreCase(courseName)) {
-                return course;
-            }
+        return coursesByName.get(foldCourseName(courseName));
+    }
+ 
+    /**
+     * Adds a student to the registry of students.
+     *
+     * @param student The student to add.
+     */
+    public static void registerStudent(Student student) {
+        students.add(student);
+        for (RegistrationListener listener : listeners) {
+            listener.studentAdded(student);
         }
-        return null;
     }
+ 
     /**
-     * Adds a new professor.
-     * Prompts the user to enter the professor's name
-     * adds them to the list of professors if the input is valid and satisfies all its conditions.
-     * Prints messages for success or failure.
+     * Adds a professor to the registry of professors.
+     *
+     * @param professor The professor to add.
      */
-    public static void addProfessor() {
-        String memberName;
-        if (scanner.hasNextLine()) {
-            memberName = scanner.nextLine();
-            if (!containsOnlyLetters(memberName)) {
-                System.out.println("Wrong inputs");
-                error = false;
-            } else {
-                Professor newProfessor = new Professor(memberName);
-                professors.add(newProfessor);
-                System.out.println("Added successfully");
-            }
-        } else {
-            System.out.println("Wrong inputs");
-            error = false;
+    public static void registerProfessor(Professor professor) {
+        professors.add(professor);
+        for (RegistrationListener listener : listeners) {
+            listener.professorAdded(professor);
         }
     }
+ 
     /**
-     * Adds a new course.
-     * Prompts the user to enter the course's name and level
-     * adds them to the list of courses if the input is valid and satisfies all its conditions.
-     * Prints messages for success or failure.
+     * Adds a course to the registry of courses and to the course name index.
+     * When several courses share a name, the index keeps the first one.
+     *
+     * @param course The course to add.
      */
-    public static boolean addCourse() {
-        String courseName;
-        if (scanner.hasNextLine()) {
-            courseName = scanner.nextLine();
-            if (!containsOnlyLettersCourse(courseName)) {
-                System.out.println("Wrong inputs");
-                error = false;
-                return error;
+    public static synchronized void registerCourse(Course course) {
+        courses.add(course);
+        coursesByName.putIfAbsent(foldCourseName(course.getCourseName()), course);
+        for (RegistrationListener listener : listeners) {
+            listener.courseAdded(course);
+        }
+    }
+ 
+    /**
+     * Gets the metrics of the commands processed by every session.
+     *
+     * @return The command metrics.
+     */
+    public static CommandMetrics getMetrics() {
+        return metrics;
+    }
+ 
+    /**
+     * Management interface of the metrics of one command, published through JMX.
+     */
+    public interface CommandStatsMXBean {
+        long getSuccessCount();
+ 
+        long getFailureCount();
+ 
+        Map<String, Long> getOutcomeCounts();
+ 
+        long getP50Nanos();
+ 
+        long getP99Nanos();
+ 
+        long getP999Nanos();
+ 
+        long getMaxNanos();
+    }
+ 
+    /**
+     * Registers a listener notified of new courses and members and of every enrollment and teaching change.
+     *
+     * @param listener The listener to add.
+     */
+    public static void addListener(RegistrationListener listener) {
+        listeners.add(listener);
+    }
+ 
+    /**
+     * Gets the query engine answering roster and teaching questions from its maintained indexes.
+     *
+     * @return The roster query engine.
+     */
+    public static RosterQueries getQueries() {
+        return queries;
+    }
+ 
+    /**
+     * Gets the dashboard aggregates of courses, seats and member loads.
+     *
+     * @return The registration aggregates.
+     */
+    public static RegistrationAggregates getAggregates() {
+        return aggregates;
+    }
+ 
+    /**
+     * Gets the bus publishing an event for every committed registration change.
+     *
+     * @return The event bus.
+     */
+    public static RegistrationEventBus getEvents() {
+        return events;
+    }
+ 
+    /**
+     * Notifies the listeners that a student joined the roster of a course.
+     *
+     * @param student The enrolled student.
+     * @param course  The course.
+     */
+    static void notifyStudentEnrolled(Student student, Course course) {
+        for (RegistrationListener listener : listeners) {
+            listener.studentEnrolled(student, course);
+        }
+    }
+ 
+    /**
+     * Notifies the listeners that a student left the roster of a course.
+     *
+     * @param student The dropped student.
+     * @param course  The course.
+     */
+    static void notifyStudentDropped(Student student, Course course) {
+        for (RegistrationListener listener : listeners) {
+            listener.studentDropped(student, course);
+        }
+    }
+ 
+    /**
+     * Notifies the listeners that a professor was assigned to a course.
+     *
+     * @param professor The professor.
+     * @param course    The course.
+     */
+    static void notifyProfessorAssigned(Professor professor, Course course) {
+        for (RegistrationListener listener : listeners) {
+            listener.professorAssigned(professor, course);
+        }
+    }
+ 
+    /**
+     * Notifies the listeners that a professor was exempted from a course.
+     *
+     * @param professor The professor.
+     * @param course    The course.
+     */
+    static void notifyProfessorExempted(Professor professor, Course course) {
+        for (RegistrationListener listener : listeners) {
+            listener.professorExempted(professor, course);
+        }
+    }
+ 
+    /**
+     * Creates and registers a course unless a course with the same name, ignoring case, already exists.
+     *
+     * @param courseName  The name of the course.
+     * @param courseLevel The level of the course.
+     * @return The new course, or null if the name is taken.
+     */
+    public static Course registerCourseIfAbsent(String courseName, CourseLevel courseLevel) {
+        Course course;
+        long position;
+        synchronized (UniversityCoursesManagementSystem.class) {
+            if (findCourseByName(courseName) != null) {
+                return null;
+            }
+            course = new Course(courseName, courseLevel);
+            registerCourse(course);
+            position = record(EnrollmentJournal.ADD_COURSE, course.getCourseId(), 0, courseName, courseLevel);
+        }
+        awaitDurable(position);
+        return course;
+    }
+ 
+    /**
+     * Creates and registers a student, recording it in the journal.
+     * The ID is taken, the student registered and the record appended under one lock, so the journal
+     * holds new members in the order of their IDs.
+     *
+     * @param studentName The name of the student.
+     * @return The new student.
+     */
+    public static Student createStudent(String studentName) {
+        Student student;
+        long position;
+        synchronized (UniversityCoursesManagementSystem.class) {
+            student = new Student(studentName);
+            registerStudent(student);
+            position = record(EnrollmentJournal.ADD_STUDENT, student.getMemberID(), 0, studentName, null);
+        }
+        awaitDurable(position);
+        return student;
+    }
+ 
+    /**
+     * Creates and registers a professor, recording it in the journal.
+     *
+     * @param professorName The name of the professor.
+     * @return The new professor.
+     */
+    public static Professor createProfessor(String professorName) {
+        Professor professor;
+        long position;
+        synchronized (UniversityCoursesManagementSystem.class) {
+            professor = new Professor(professorName);
+            registerProfessor(professor);
+            position = record(EnrollmentJournal.ADD_PROFESSOR, professor.getMemberID(), 0, professorName, null);
+        }
+        awaitDurable(position);
+        return professor;
+    }
+ 
+    /**
+     * Creates and registers a course, recording it in the journal.
+     *
+     * @param courseName  The name of the course.
+     * @param courseLevel The level of the course.
+     * @return The new course.
+     */
+    public static Course createCourse(String courseName, CourseLevel courseLevel) {
+        Course course;
+        long position;
+        synchronized (UniversityCoursesManagementSystem.class) {
+            course = new Course(courseName, courseLevel);
+            registerCourse(course);
+            position = record(EnrollmentJournal.ADD_COURSE, course.getCourseId(), 0, courseName, courseLevel);
+        }
+        awaitDurable(position);
+        return course;
+    }
+ 
+    /**
+     * Appends a successful change to the journal, if one is open, and stages its registration event.
+     * The caller still holds the locks of the change, so the event takes its place in commit order;
+     * the next awaitDurable of the thread publishes it.
+     *
+     * @param type   The type of the change.
+     * @param first  The ID of the member or course the change is about.
+     * @param second The ID of the course for enrollment and teaching changes, otherwise 0.
+     * @param name   The name of a new member or course, otherwise null.
+     * @param level  The level of a new course, otherwise null.
+     * @return The position to wait for with awaitDurable, or 0 when there is no journal.
+     */
+    static long record(byte type, int first, int second, String name, CourseLevel level) {
+        EnrollmentJournal current = journal;
+        long position = current == null ? 0 : current.append(type, first, second, name, level);
+        stageEvent(type, first, second);
+        return position;
+    }
+ 
+    /**
+     * Takes the sequence number of the event of a journaled change, if the change has one and the bus
+     * has a subscriber.
+     */
+    private static void stageEvent(byte type, int first, int second) {
+        RegistrationEvent event;
+        switch (type) {
+            case EnrollmentJournal.ADD_COURSE:
+                event = events.reserve(RegistrationEventType.COURSE_ADDED, 0, first);
+                break;
+            case EnrollmentJournal.ADD_STUDENT:
+                event = events.reserve(RegistrationEventType.STUDENT_ADDED, first, 0);
+                break;
+            case EnrollmentJournal.ADD_PROFESSOR:
+                event = events.reserve(RegistrationEventType.PROFESSOR_ADDED, first, 0);
+                break;
+            case EnrollmentJournal.ENROLL:
+            case EnrollmentJournal.ENROLL_UNSEATED:
+            case EnrollmentJournal.PROMOTE:
+                event = events.reserve(RegistrationEventType.STUDENT_ENROLLED, first, second);
+                break;
+            case EnrollmentJournal.DROP:
+                event = events.reserve(RegistrationEventType.STUDENT_DROPPED, first, second);
+                break;
+            case EnrollmentJournal.TEACH:
+                event = events.reserve(RegistrationEventType.PROFESSOR_ASSIGNED, first, second);
+                break;
+            case EnrollmentJournal.EXEMPT:
+                event = events.reserve(RegistrationEventType.PROFESSOR_EXEMPTED, first, second);
+                break;
+            default:
+                return;
+        }
+        if (event != null) {
+            stagedEvents.get().add(event);
+        }
+    }
+ 
+    /**
+     * Appends a student joining a waitlist to the journal, if one is open.
+     *
+     * @param studentID The ID of the waiting student.
+     * @param courseID  The ID of the course.
+     * @param priority  The priority of the student.
+     * @return The position to wait for with awaitDurable, or 0 when there is no journal.
+     */
+    static long recordWaitlistJoin(int studentID, int courseID, int priority) {
+        EnrollmentJournal current = journal;
+        return current == null ? 0 : current.appendWaitlistJoin(studentID, courseID, priority);
+    }
+ 
+    /**
+     * Appends the enrollments of a bundle to the journal as one group, if one is open.
+     *
+     * @param studentID The ID of the enrolled student.
+     * @param courseIDs The IDs of the courses of the bundle.
+     * @return The position to wait for with awaitDurable, or 0 when there is no journal.
+     */
+    static long recordBundle(int studentID, int[] courseIDs) {
+        EnrollmentJournal current = journal;
+        long position = current == null ? 0 : current.appendBundle(studentID, courseIDs);
+        for (int courseID : courseIDs) {
+            stageEvent(EnrollmentJournal.ENROLL, studentID, courseID);
+        }
+        return position;
+    }
+ 
+    /**
+     * Waits until the journal has forced a record to disk, then publishes the events the thread staged.
+     * If the journal failed, the staged events are discarded instead, as their changes may be lost.
+     *
+     * @param position The position returned by record.
+     */
+    static void awaitDurable(long position) {
+        EnrollmentJournal current = journal;
+        List<RegistrationEvent> staged = stagedEvents.get();
+        try {
+            if (current != null) {
+                current.awaitDurable(position);
+            }
+        } catch (RuntimeException e) {
+            for (RegistrationEvent event : staged) {
+                events.discard(event);
+            }
+            staged.clear();
+            throw e;
+        }
+        for (RegistrationEvent event : staged) {
+            events.publish(event);
+        }
+        staged.clear();
+    }
+ 
+    /**
+     * Restores the system from a journal directory and keeps the journal open for the changes that follow.
+     * The latest snapshot is loaded, or the initial data filled if there is none, and only the journal
+     * after the snapshot is replayed. Snapshots are then taken in the background every
+     * ucms.snapshot.seconds seconds, 60 by default.
+     *
+     * @param directory The journal directory, created if missing.
+     * @throws IOException If the snapshot or the journal cannot be read or opened.
+     */
+    public static void openJournal(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        StateSnapshot snapshot = StateSnapshot.readLatest(directory);
+        if (snapshot == null) {
+            fillInitialData();
+            snapshot = StateSnapshot.capture(0);
+        } else {
+            snapshot.restore();
+        }
+        ConcurrentEnrollmentEngine replayEngine = createEngine();
+        long end = EnrollmentJournal.replay(directory, snapshot.getPosition(), Long.MAX_VALUE,
+                (type, first, second, name, argument) ->
+                        applyJournalRecord(replayEngine, type, first, second, name, argument));
+        journal = EnrollmentJournal.open(directory, end);
+        snapshots = new SnapshotService(directory, journal, snapshot);
+        snapshots.start(Long.getLong("ucms.snapshot.seconds", 60));
+    }
+ 
+    /**
+     * Applies one journal record. New members and courses already in the registries are skipped.
+     * The journal only holds successful changes, so any other record that is refused on replay means the
+     * restored state differs from what was acknowledged, and fails the replay.
+     */
+    private static void applyJournalRecord(ConcurrentEnrollmentEngine replayEngine, byte type, int first,
+                                           int second, String name, byte argument) {
+        int id;
+        switch (type) {
+            case EnrollmentJournal.ADD_COURSE:
+                id = findCourseByID(first) == null
+                        ? createCourse(name, EnrollmentJournal.levelOf(argument)).getCourseId() : first;
+                break;
+            case EnrollmentJournal.ADD_STUDENT:
+                id = findStudentByID(first) == null ? createStudent(name).getMemberID() : first;
+                break;
+            case EnrollmentJournal.ADD_PROFESSOR:
+                id = findProfessorByID(first) == null ? createProfessor(name).getMemberID() : first;
+                break;
+            case EnrollmentJournal.ENROLL:
+                checkReplayed(type, first, second, replayEngine.enroll(first, second), CommandOutcome.ENROLLED);
+                return;
+            case EnrollmentJournal.ENROLL_UNSEATED:
+                checkReplayed(type, first, second, replayEngine.enrollUncapped(first, second),
+                        CommandOutcome.ENROLLED_UNSEATED);
+                return;
+            case EnrollmentJournal.DROP:
+                checkReplayed(type, first, second, replayEngine.drop(first, second, null), CommandOutcome.DROPPED);
+                return;
+            case EnrollmentJournal.WAITLIST_JOIN:
+                findCourseByID(second).getWaitlist().add(first, argument);
+                return;
+            case EnrollmentJournal.WAITLIST_LEAVE:
+                findCourseByID(second).getWaitlist().remove(first);
+                return;
+            case EnrollmentJournal.PROMOTE:
+                checkReplayed(type, first, second, replayEngine.enroll(first, second), CommandOutcome.ENROLLED);
+                findCourseByID(second).getWaitlist().remove(first);
+                return;
+            case EnrollmentJournal.TEACH:
+                checkReplayed(type, first, second, replayEngine.teach(first, second), CommandOutcome.ASSIGNED);
+                return;
+            case EnrollmentJournal.EXEMPT:
+                checkReplayed(type, first, second, replayEngine.exempt(first, second), CommandOutcome.EXEMPTED);
+                return;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+        if (id != first) {
+            throw new IllegalStateException("Journal record for ID " + first + " replayed as ID " + id);
+        }
+    }
+ 
+    private static void checkReplayed(byte type, int first, int second, CommandOutcome outcome,
+                                      CommandOutcome expected) {
+        if (outcome != expected) {
+            throw new IllegalStateException("Journal record of type " + type + " for " + first + " and " + second
+                    + " replayed as " + outcome);
+        }
+    }
+ 
+    /**
+     * Gets the engine serving enroll, drop, teach and exempt requests from many threads
+     * over the students, professors and courses of the system.
+     * Every caller shares the one engine, so its course and member locks exclude each other across
+     * the console, the server, replay and the initial data.
+     *
+     * @return The concurrent enrollment engine.
+     */
+    public static ConcurrentEnrollmentEngine createEngine() {
+        return engine;
+    }
+ 
+    /**
+     * Folds the case of a course name so that two names are equal ignoring case
+     * exactly when their folded forms are equal.
+     *
+     * @param courseName The course name to fold.
+     * @return The case-folded course name.
+     */
+    private static String foldCourseName(String courseName) {
+        char[] folded = new char[courseName.length()];
+        for (int i = 0; i < folded.length; i++) {
+            folded[i] = Character.toLowerCase(Character.toUpperCase(courseName.charAt(i)));
+        }
+        return new String(folded);
+    }
+    /**
+     * Adds a new professor.
+     * Prompts the user to enter the professor's name
+     * adds them to the list of professors if the input is valid and satisfies all its conditions.
+     * Prints messages for success or failure.
+     */
+    public static void addProfessor() {
+        console.addProfessor();
+    }
+    /**
+     * Adds a new course.
+     * Prompts the user to enter the course's name and level
+     * adds them to the list of courses if the input is valid and satisfies all its conditions.
+     * Prints messages for success or failure.
+     */
+    public static boolean addCourse() {
+        return console.addCourse();
+    }
+ 
+    /**
+     * fill the system with initial data including courses, students, and professors.
+     */
+    public static void fillInitialData() {
+        fillInitialData(createEngine());
+    }
+ 
+    /**
+     * Fills the system with the initial data, applying the initial teaching and enrollments through a service.
+     *
+     * @param service The service applying teach and enroll.
+     */
+    static void fillInitialData(EnrollmentService service) {
+        registerCourse(new Course("java_beginner", CourseLevel.BACHELOR));
+        registerCourse(new Course("java_intermediate", CourseLevel.BACHELOR));
+        registerCourse(new Course("python_basics", CourseLevel.BACHELOR));
+        registerCourse(new Course("algorithms", CourseLevel.MASTER));
+        registerCourse(new Course("advanced_programming", CourseLevel.MASTER));
+        registerCourse(new Course("mathematical_analysis", CourseLevel.MASTER));
+        registerCourse(new Course("computer_vision", CourseLevel.MASTER));
+ 
+        registerStudent(new Student("Alice"));
+        registerStudent(new Student("Bob"));
+        registerStudent(new Student("Alex"));
+ 
+        registerProfessor(new Professor("Ali"));
+        registerProfessor(new Professor("Ahmed"));
+        registerProfessor(new Professor("Andrey"));
+        for (Course course : courses) {
+            stageEvent(EnrollmentJournal.ADD_COURSE, course.getCourseId(), 0);
+        }
+        for (Student student : students) {
+            stageEvent(EnrollmentJournal.ADD_STUDENT, student.getMemberID(), 0);
+        }
+        for (Professor professor : professors) {
+            stageEvent(EnrollmentJournal.ADD_PROFESSOR, professor.getMemberID(), 0);
+        }
+        awaitDurable(0);
+        service.teach(professors.get(0).getMemberID(), findCourseByName("java_beginner").getCourseId());
+        service.teach(professors.get(0).getMemberID(), findCourseByName("java_intermediate").getCourseId());
+        service.teach(professors.get(1).getMemberID(), findCourseByName("python_basics").getCourseId());
+        service.teach(professors.get(1).getMemberID(), findCourseByName("advanced_programming").getCourseId());
+        service.teach(professors.get(2).getMemberID(), findCourseByName("mathematical_analysis").getCourseId());
+        service.enroll(students.get(0).getMemberID(), findCourseByName("java_beginner").getCourseId());
+        service.enroll(students.get(0).getMemberID(), findCourseByName("java_intermediate").getCourseId());
+        service.enroll(students.get(0).getMemberID(), findCourseByName("python_basics").getCourseId());
+        service.enroll(students.get(1).getMemberID(), findCourseByName("java_beginner").getCourseId());
+        service.enroll(students.get(1).getMemberID(), findCourseByName("algorithms").getCourseId());
+        service.enroll(students.get(2).getMemberID(), findCourseByName("advanced_programming").getCourseId());
+    }
+}
+ 
+ 
+/**
+ * Registry keeping items in a slot array indexed by their dense sequential ID,
+ * so that a lookup is a single array access, and in insertion order for iteration.
+ * Adds are serialized while lookups by ID take no lock.
+ *
+ * @param <T> The type of the registered items.
+ */
+class IdRegistry<T> implements Iterable<T> {
+    private static final int INITIAL_CAPACITY = 16;
+    private final ToIntFunction<T> idOf;
+    private final List<T> ordered;
+    private volatile Object[] slots;
+ 
+    /**
+     * Constructs an empty registry.
+     *
+     * @param idOf The function giving the ID of an item.
+     */
+    public IdRegistry(ToIntFunction<T> idOf) {
+        this.idOf = idOf;
+        this.ordered = new ArrayList<>();
+        this.slots = new Object[INITIAL_CAPACITY];
+    }
+ 
+    /**
+     * Adds an item to the registry.
+     *
+     * @param item The item to add.
+     */
+    public synchronized void add(T item) {
+        int id = idOf.applyAsInt(item);
+        Object[] current = slots;
+        if (id >= current.length) {
+            current = Arrays.copyOf(current, Math.max(id + 1, current.length * 2));
+        }
+        current[id] = item;
+        slots = current;
+        ordered.add(item);
+    }
+ 
+    /**
+     * Finds an item by its ID.
+     *
+     * @param id The ID of the item.
+     * @return The item with the given ID, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public T findByID(int id) {
+        Object[] current = slots;
+        if (id < 0 || id >= current.length) {
+            return null;
+        }
+        return (T) current[id];
+    }
+ 
+    /**
+     * Gets an item by its insertion index.
+     *
+     * @param index The insertion index of the item.
+     * @return The item added at that index.
+     */
+    public synchronized T get(int index) {
+        return ordered.get(index);
+    }
+ 
+    /**
+     * Gets the number of registered items.
+     *
+     * @return The number of items.
+     */
+    public synchronized int size() {
+        return ordered.size();
+    }
+ 
+    @Override
+    public Iterator<T> iterator() {
+        return ordered.iterator();
+    }
+}
+ 
+/**
+ * Reads the commands of one client and prints the responses, with the exact text of the console.
+ * A business-rule failure prints its message and ends the session, so its outcome is recorded in the
+ * metrics; for the console, whose session is the whole program, that ends the program as it always has.
+ * Every session enrolls a student in a full course as the console always has, without a seat on the roster.
+ */
+class CommandSession {
+    private final LineSource input;
+    private final PrintStream out;
+    private final EnrollmentService engine;
+    private final CommandMetrics metrics;
+    private boolean error = true;
+    private CommandOutcome outcome;
+ 
+    /**
+     * Constructs a session.
+     *
+     * @param input  The source of the command lines.
+     * @param out    The stream the responses are printed to.
+     * @param engine The service applying enroll, drop, teach and exempt, or null to use the domain classes.
+     */
+    public CommandSession(LineSource input, PrintStream out, EnrollmentService engine) {
+        this.input = input;
+        this.out = out;
+        this.engine = engine;
+        this.metrics = UniversityCoursesManagementSystem.getMetrics();
+    }
+ 
+    /**
+     * Processes input commands from the user.
+     * Uses a loop to continuously accept commands until an error occurs or the input is empty.
+     * Available commands: "course", "student", "professor", "enroll", "drop", "exempt", "teach",
+     * "waitlist", "unwaitlist".
+     */
+    public void processInput() {
+        label:
+        while (error) {
+            CommandKeyword command;
+            if (input.hasNextLine()) {
+                command = input.nextCommand();
+            } else {
+                break label;
+            }
+            long start = System.nanoTime();
+            outcome = null;
+            if (command == CommandKeyword.EMPTY) {
+                out.println("Wrong inputs");
+                metrics.record(command, CommandOutcome.WRONG_INPUTS, System.nanoTime() - start);
+                break;
+            }
+ 
+            switch (command) {
+                case COURSE:
+                    addCourse();
+                    break;
+                case STUDENT:
+                    addStudent();
+                    break;
+                case PROFESSOR:
+                    addProfessor();
+                    break;
+                case ENROLL:
+                    enroll();
+                    break;
+                case DROP:
+                    drop();
+                    break;
+                case EXEMPT:
+                    exempt();
+                    break;
+                case TEACH:
+                    teach();
+                    break;
+                case WAITLIST:
+                    waitlist(true);
+                    break;
+                case UNWAITLIST:
+                    waitlist(false);
+                    break;
+                default:
+                    out.println("Wrong inputs");
+                    error = false;
+                    metrics.record(command, CommandOutcome.WRONG_INPUTS, System.nanoTime() - start);
+                    break label;
+            }
+            CommandOutcome recorded = outcome != null ? outcome
+                    : error ? CommandMetrics.successOf(command) : CommandOutcome.WRONG_INPUTS;
+            metrics.record(command, recorded, System.nanoTime() - start);
+        }
+    }
+    /**
+     * Adds a new student.
+     * Prompts the user to enter the student's name
+     * adds them to the list of students if the input is valid and satisfies all its conditions.
+     * Prints messages for success or failure.
+     */
+    public void addStudent() {
+        String memberName;
+        if (input.hasNextLine()) {
+            memberName = input.nextLine();
+            if (!UniversityCoursesManagementSystem.containsOnlyLetters(memberName)) {
+                out.println("Wrong inputs");
+                error = false;
+            }
+            if (UniversityCoursesManagementSystem.isReservedWord(memberName)) {
+                out.println("Wrong inputs");
+                error = false;
+            } else {
+                UniversityCoursesManagementSystem.createStudent(memberName);
+                out.println("Added successfully");
+            }
+ 
+        } else {
+            out.println("Wrong inputs");
+            error = false;
+        }
+    }
+    /**
+     * assigns a professor to teach a course.
+     * Prompts the user for the professor and course IDs
+     * then assigns the professor to teach the course if he is not teaching it already.
+     * Prints messages for success or failure.
+     *
+     * @return True if the professor is successfully assigned to teach the course, if else false
+     */
+    public boolean teach() {
+        try {
+            String professorIDInput;
+            if (input.hasNextLine()) {
+                professorIDInput = input.nextLine();
+            } else {
+                out.println("Wrong inputs");
+                error = false;
+                return error;
+            }
+            int professorID = Integer.parseInt(professorIDInput);
+            Professor professor = UniversityCoursesManagementSystem.findProfessorByID(professorID);
+            if (professor == null) {
+                out.println("Wrong inputs");
+                error = false;
+                return error;
+            }
+            String courseIDInput;
+            if (input.hasNextLine()) {
+                courseIDInput = input.nextLine();
+            } else {
+                out.println("Wrong inputs");
+                error = false;
+                return error;
+            }
+            int courseID = Integer.parseInt(courseIDInput);
+ 
+            Course course = UniversityCoursesManagementSystem.findCourseByID(courseID);
+ 
+            if (course == null) {
+                out.println("Wrong inputs");
+                error = false;
+                return error;
+            } else {
+                boolean assigned = teach(professor, course);
+                if (assigned) {
+                    out.println("Professor is successfully assigned to teach this course");
+                    return true;
+                }
+            }
+        } catch (NumberFormatException e) {
+            out.println("Wrong inputs");
+            error = false;
+        }
+        return true;
+    }
+    /**
+     * exempts a professor from teaching a course.
+     * Prompts the user for the professor and course IDs
+     * then exempts the professor from teaching the course if he is teaching it.
+     * Prints messages for success or failure.
+     *
+     * @return True if the professor is successfully exempted from teaching the course, if else false
+     */
+    public boolean exempt() {
+        try {
+            String professorIDInput;
+            if (input.hasNextLine()) {
+                professorIDInput = input.nextLine();
+            } else {
+                out.println("Wrong inputs");
+                error = false;
+                return error;
+            }
+            int professorID = Integer.parseInt(professorIDInput);
+            Professor professor = UniversityCoursesManagementSystem.findProfessorByID(professorID);
+            if (professor == null) {
+                out.println("Wrong inputs");
+                error = false;
+                return error;
+            }
+            String courseIDInput;
+            if (input.hasNextLine()) {
+                courseIDInput = input.nextLine();
+            } else {
+                out.println("Wrong inputs");
+                error = false;
+                return false;
+            }
+            int courseID = Integer.parseInt(courseIDInput);
+ 
+            Course course = UniversityCoursesManagementSystem.findCourseByID(courseID);
+ 
+            if (course == null) {
+                out.println("Wrong inputs");
+                error = false;
+                return error;
+            } else {
+                boolean exempted = exempt(professor, course);
+                if (exempted) {
+                    out.println("Professor is exempted");
+                    return true;
+                }
+            }
+        } catch (NumberFormatException e) {
+            out.println("Wrong inputs");
+            error = false;
+            return error;
+        }
+        return true;
+    }
+    /**
+     * drops a student from a course.
+     * Prompts the user for the student and course IDs
+     * then drops the student from the course if he is enrolled in it already.
+     * Prints messages for success or failure.
+     *
+     * @return True if the student is successfully dropped from the course, if else false
+     */
+    public boolean drop() {
+        try {
+            String studentIDInput;
+            if (input.hasNextLine()) {
+                studentIDInput = input.nextLine();
+            } else {
+                out.println("Wrong inputs");
+                error = false;
+                return false;
+            }
+            int studentID = Integer.parseInt(studentIDInput);
+            Student student = UniversityCoursesManagementSystem.findStudentByID(studentID);
+            if (student == null) {
+                out.println("Wrong inputs");
+                error = false;
+                return error;
+            }
+            String courseIDInput;
+            if (input.hasNextLine()) {
+                courseIDInput = input.nextLine();
+            } else {
+                out.println("Wrong inputs");
+                error = false;
+                return false;
+            }
+            int courseID = Integer.parseInt(courseIDInput);
+ 
+            Course course = UniversityCoursesManagementSystem.findCourseByID(courseID);
+ 
+            if (course == null) {
+                out.println("Wrong inputs");
+                error = false;
+                return error;
+            } else {
+                boolean dropped = drop(student, course);
+                if (dropped) {
+                    out.println("Dropped successfully");
+                    return true;
+                }
+            }
+        } catch (NumberFormatException e) {
+            out.println("Wrong inputs");
+            error = false;
+        }
+        return true;
+    }
+    /**
+     * enrolls a student from a course.
+     * Prompts the user for the student and course IDs
+     * then enrolls the student in the course if he is not already enrolled in it.
+     * Prints messages for success or failure.
+     *
+     * @return True if the student is successfully dropped from the course, if else false
+     */
+    public boolean enroll() {
+        try {
+            String studentIDInput;
+            if (input.hasNextLine()) {
+                studentIDInput = input.nextLine();
+            } else {
+                out.println("Wrong inputs");
+                error = false;
+                return false;
+            }
+            int studentID = Integer.parseInt(studentIDInput);
+            Student student = UniversityCoursesManagementSystem.findStudentByID(studentID);
+            if (student == null) {
+                out.println("Wrong inputs");
+                error = false;
+                return error;
+            }
+            String courseIDInput;
+            if (input.hasNextLine()) {
+                courseIDInput = input.nextLine();
+            } else {
+                out.println("Wrong inputs");
+                error = false;
+                return false;
+            }
+            int courseID = Integer.parseInt(courseIDInput);
+ 
+            Course course = UniversityCoursesManagementSystem.findCourseByID(courseID);
+ 
+            if (course == null) {
+                out.println("Wrong inputs");
+                error = false;
+                return error;
+            } else {
+                boolean enrolled = enroll(student, course);
+                if (enrolled) {
+                    out.println("Enrolled successfully");
+                    return true;
+                }
+            }
+        } catch (NumberFormatException e) {
+            out.println("Wrong inputs");
+            error = false;
+            return error;
+ 
+        }
+        return true;
+    }
+    /**
+     * Puts a student on the waitlist of a course, enrolling the student right away if a seat is free,
+     * or takes a student off the waitlist.
+     * Prompts the user for the student and course IDs.
+     * Prints messages for success or failure.
+     *
+     * @param join True to join the waitlist, false to leave it.
+     * @return True if the student is enrolled, waitlisted or off the waitlist, if else false
+     */
+    public boolean waitlist(boolean join) {
+        try {
+            String studentIDInput;
+            if (input.hasNextLine()) {
+                studentIDInput = input.nextLine();
+            } else {
+                out.println("Wrong inputs");
+                error = false;
+                return false;
+            }
+            Student student = UniversityCoursesManagementSystem.findStudentByID(Integer.parseInt(studentIDInput));
+            if (student == null) {
+                out.println("Wrong inputs");
+                error = false;
+                return error;
+            }
+            String courseIDInput;
+            if (input.hasNextLine()) {
+                courseIDInput = input.nextLine();
+            } else {
+                out.println("Wrong inputs");
+                error = false;
+                return false;
+            }
+            Course course = UniversityCoursesManagementSystem.findCourseByID(Integer.parseInt(courseIDInput));
+            if (course == null) {
+                out.println("Wrong inputs");
+                error = false;
+                return error;
+            }
+            return waitlist(student, course, join);
+        } catch (NumberFormatException e) {
+            out.println("Wrong inputs");
+            error = false;
+            return error;
+        }
+    }
+    /**
+     * Adds a new professor.
+     * Prompts the user to enter the professor's name
+     * adds them to the list of professors if the input is valid and satisfies all its conditions.
+     * Prints messages for success or failure.
+     */
+    public void addProfessor() {
+        String memberName;
+        if (input.hasNextLine()) {
+            memberName = input.nextLine();
+            if (!UniversityCoursesManagementSystem.containsOnlyLetters(memberName)) {
+                out.println("Wrong inputs");
+                error = false;
+            } else {
+                UniversityCoursesManagementSystem.createProfessor(memberName);
+                out.println("Added successfully");
+            }
+        } else {
+            out.println("Wrong inputs");
+            error = false;
+        }
+    }
+    /**
+     * Adds a new course.
+     * Prompts the user to enter the course's name and level
+     * adds them to the list of courses if the input is valid and satisfies all its conditions.
+     * Prints messages for success or failure.
+     */
+    public boolean addCourse() {
+        String courseName;
+        if (input.hasNextLine()) {
+            courseName = input.nextLine();
+            if (!UniversityCoursesManagementSystem.containsOnlyLettersCourse(courseName)) {
+                out.println("Wrong inputs");
+                error = false;
+                return error;
+            }
+            boolean courseExists = UniversityCoursesManagementSystem.findCourseByName(courseName) != null;
+            if (courseExists) {
+                out.println("Course exists");
+                error = false;
+                outcome = CommandOutcome.COURSE_EXISTS;
+            }
+            if (UniversityCoursesManagementSystem.isReservedWord(courseName)) {
+                    out.println("Wrong inputs");
+                    error = false;
+            } else {
+                String level;
+                if (input.hasNextLine()) {
+                    level = input.nextLine().toUpperCase();
+                    if (!level.equals("BACHELOR") && !level.equals("MASTER")) {
+                        error = false;
+                        out.println("Wrong inputs");
+                        return error;
+                    }
+                CourseLevel courseLevel = CourseLevel.valueOf(level);
+                UniversityCoursesManagementSystem.createCourse(courseName, courseLevel);
+                out.println("Added successfully");
+                }
+            }
+        } else {
+            out.println("Wrong inputs");
+            error = false;
+        }
+        return true;
+    }
+ 
+    private boolean enroll(Student student, Course course) {
+        if (engine == null) {
+            CommandOutcome outcome = student.tryEnrollUncapped(course);
+            if (outcome.isSuccess()) {
+                byte type = outcome == CommandOutcome.ENROLLED_UNSEATED
+                        ? EnrollmentJournal.ENROLL_UNSEATED : EnrollmentJournal.ENROLL;
+                UniversityCoursesManagementSystem.awaitDurable(UniversityCoursesManagementSystem.record(
+                        type, student.getMemberID(), course.getCourseId(), null, null));
+            }
+            return accept(outcome);
+        }
+        return accept(engine.enrollUncapped(student.getMemberID(), course.getCourseId()));
+    }
+ 
+    private boolean drop(Student student, Course course) {
+        if (engine == null) {
+            CommandOutcome outcome = student.tryDrop(course);
+            if (outcome.isSuccess()) {
+                long position = UniversityCoursesManagementSystem.record(
+                        EnrollmentJournal.DROP, student.getMemberID(), course.getCourseId(), null, null);
+                Set<Course> woken = Course.wakeParked(student.getMemberID());
+                position = promoteWaitlisted(course, position);
+                for (Course other : woken) {
+                    position = other == course ? position : promoteWaitlisted(other, position);
+                }
+                UniversityCoursesManagementSystem.awaitDurable(position);
+            }
+            return accept(outcome);
+        }
+        return accept(engine.drop(student.getMemberID(), course.getCourseId()));
+    }
+ 
+    private static long promoteWaitlisted(Course course, long position) {
+        Student promoted = course.promoteWaitlisted(null);
+        return promoted == null ? position : UniversityCoursesManagementSystem.record(
+                EnrollmentJournal.PROMOTE, promoted.getMemberID(), course.getCourseId(), null, null);
+    }
+ 
+    private boolean waitlist(Student student, Course course, boolean join) {
+        CommandOutcome result;
+        if (engine != null) {
+            result = join ? engine.enrollOrWaitlist(student.getMemberID(), course.getCourseId(), 0)
+                    : engine.leaveWaitlist(student.getMemberID(), course.getCourseId());
+        } else if (join) {
+            result = course.enrollOrWaitlist(student, 0);
+            long position = 0;
+            if (result == CommandOutcome.ENROLLED) {
+                position = UniversityCoursesManagementSystem.record(
+                        EnrollmentJournal.ENROLL, student.getMemberID(), course.getCourseId(), null, null);
+            } else if (result == CommandOutcome.WAITLISTED) {
+                position = UniversityCoursesManagementSystem.recordWaitlistJoin(
+                        student.getMemberID(), course.getCourseId(), 0);
+            }
+            UniversityCoursesManagementSystem.awaitDurable(position);
+        } else {
+            result = course.getWaitlist().remove(student.getMemberID())
+                    ? CommandOutcome.LEFT_WAITLIST : CommandOutcome.NOT_WAITLISTED;
+            if (result == CommandOutcome.LEFT_WAITLIST) {
+                UniversityCoursesManagementSystem.awaitDurable(UniversityCoursesManagementSystem.record(
+                        EnrollmentJournal.WAITLIST_LEAVE, student.getMemberID(), course.getCourseId(), null, null));
+            }
+        }
+        if (result == CommandOutcome.WAITLISTED || result == CommandOutcome.LEFT_WAITLIST) {
+            out.println(result.getMessage());
+            outcome = result;
+            return true;
+        }
+        if (accept(result)) {
+            out.println(result.getMessage());
+            return true;
+        }
+        return false;
+    }
+ 
+    private boolean teach(Professor professor, Course course) {
+        if (engine == null) {
+            CommandOutcome outcome = professor.tryTeach(course);
+            if (outcome.isSuccess()) {
+                UniversityCoursesManagementSystem.awaitDurable(UniversityCoursesManagementSystem.record(
+                        EnrollmentJournal.TEACH, professor.getMemberID(), course.getCourseId(), null, null));
+            }
+            return accept(outcome);
+        }
+        return accept(engine.teach(professor.getMemberID(), course.getCourseId()));
+    }
+ 
+    private boolean exempt(Professor professor, Course course) {
+        if (engine == null) {
+            CommandOutcome outcome = professor.tryExempt(course);
+            if (outcome.isSuccess()) {
+                UniversityCoursesManagementSystem.awaitDurable(UniversityCoursesManagementSystem.record(
+                        EnrollmentJournal.EXEMPT, professor.getMemberID(), course.getCourseId(), null, null));
+            }
+            return accept(outcome);
+        }
+        return accept(engine.exempt(professor.getMemberID(), course.getCourseId()));
+    }
+ 
+    /**
+     * Keeps the outcome of a command for the metrics, and prints the message of a refused command and ends
+     * the session, which for the console ends the program.
+     */
+    private boolean accept(CommandOutcome result) {
+        outcome = result;
+        if (result.isSuccess()) {
+            return true;
+        }
+        out.println(result.getMessage());
+        error = false;
+        return false;
+    }
+}
+ 
+/**
+ * Interface for sources of command lines.
+ */
+interface LineSource {
+ 
+    /**
+     * Checks if another line can be read.
+     *
+     * @return True if there is another line, false at the end of the input.
+     */
+    boolean hasNextLine();
+ 
+    /**
+     * Reads the next line, without its line terminator.
+     *
+     * @return The next line.
+     */
+    String nextLine();
+ 
+    /**
+     * Reads the next line as a command keyword, matched ignoring case.
+     *
+     * @return The keyword of the next line, EMPTY for an empty line or UNKNOWN for any other text.
+     */
+    default CommandKeyword nextCommand() {
+        return CommandKeyword.of(nextLine());
+    }
+ 
+    /**
+     * Creates a line source reading from a scanner.
+     *
+     * @param scanner The scanner to read from.
+     * @return The line source.
+     */
+    static LineSource of(Scanner scanner) {
+        return new LineSource() {
+            @Override
+            public boolean hasNextLine() {
+                return scanner.hasNextLine();
+            }
+ 
+            @Override
+            public String nextLine() {
+                return scanner.nextLine();
+            }
+        };
+    }
+ 
+    /**
+     * Creates a line source reading from a buffered reader.
+     *
+     * @param reader The reader to read from.
+     * @return The line source.
+     */
+    static LineSource of(BufferedReader reader) {
+        return new LineSource() {
+            private String next;
+ 
+            @Override
+            public boolean hasNextLine() {
+                if (next == null) {
+                    try {
+                        next = reader.readLine();
+                    } catch (IOException e) {
+                        return false;
+                    }
+                }
+                return next != null;
+            }
+ 
+            @Override
+            public String nextLine() {
+                if (!hasNextLine()) {
+                    throw new NoSuchElementException("No line found");
+                }
+                String line = next;
+                next = null;
+                return line;
+            }
+        };
+    }
+}
+ 
+/**
+ * Enum representing the command keywords, with the matching of a line against them.
+ */
+enum CommandKeyword {
+    COURSE("course"),
+    STUDENT("student"),
+    PROFESSOR("professor"),
+    ENROLL("enroll"),
+    DROP("drop"),
+    EXEMPT("exempt"),
+    TEACH("teach"),
+    WAITLIST("waitlist", false),
+    UNWAITLIST("unwaitlist", false),
+    EMPTY(""),
+    UNKNOWN("");
+ 
+    private static final CommandKeyword[][] BY_LENGTH;
+    private final String word;
+    private final byte[] bytes;
+    private final boolean reserved;
+ 
+    static {
+        int longest = 0;
+        for (CommandKeyword keyword : values()) {
+            longest = Math.max(longest, keyword.word.length());
+        }
+        BY_LENGTH = new CommandKeyword[longest + 1][];
+        for (int length = 0; length < BY_LENGTH.length; length++) {
+            List<CommandKeyword> keywords = new ArrayList<>();
+            for (CommandKeyword keyword : values()) {
+                if (keyword.word.length() == length && !keyword.word.isEmpty()) {
+                    keywords.add(keyword);
+                }
+            }
+            BY_LENGTH[length] = keywords.toArray(new CommandKeyword[0]);
+        }
+    }
+ 
+    /**
+     * Constructor for CommandKeyword enum.
+     *
+     * @param word The lower-case text of the keyword.
+     */
+    CommandKeyword(String word) {
+        this(word, true);
+    }
+ 
+    /**
+     * Constructor for CommandKeyword enum.
+     *
+     * @param word     The lower-case text of the keyword.
+     * @param reserved Whether names may not be the keyword; the waitlist commands came after names were
+     *                 checked against the keywords, so names the console accepted stay accepted.
+     */
+    CommandKeyword(String word, boolean reserved) {
+        this.word = word;
+        this.bytes = word.getBytes(StandardCharsets.US_ASCII);
+        this.reserved = reserved;
+    }
+ 
+    /**
+     * Checks if names may not be the keyword.
+     *
+     * @return True if the keyword is reserved, false otherwise.
+     */
+    public boolean isReserved() {
+        return reserved;
+    }
+ 
+    /**
+     * Gets the lower-case text of the keyword.
+     *
+     * @return The keyword text.
+     */
+    public String getWord() {
+        return word;
+    }
+ 
+    /**
+     * Gets the command keywords of a given length.
+     *
+     * @param length The length of the keywords.
+     * @return The keywords with that many letters.
+     */
+    static CommandKeyword[] withLength(int length) {
+        return length < BY_LENGTH.length ? BY_LENGTH[length] : BY_LENGTH[0];
+    }
+ 
+    /**
+     * Matches a line against the keywords, after converting it to lower case.
+     *
+     * @param line The line to match.
+     * @return The matching keyword, EMPTY or UNKNOWN.
+     */
+    public static CommandKeyword of(String line) {
+        if (line.isEmpty()) {
+            return EMPTY;
+        }
+        String command = line.toLowerCase();
+        for (CommandKeyword keyword : withLength(command.length())) {
+            if (keyword.word.equals(command)) {
+                return keyword;
+            }
+        }
+        return UNKNOWN;
+    }
+ 
+    /**
+     * Matches ASCII bytes against the keywords, ignoring case, without decoding them.
+     *
+     * @param buffer The buffer holding the line.
+     * @param from   The index of the first byte of the line.
+     * @param to     The index after the last byte of the line.
+     * @return The matching keyword, EMPTY or UNKNOWN.
+     */
+    public static CommandKeyword of(byte[] buffer, int from, int to) {
+        return of(ByteBuffer.wrap(buffer), from, to);
+    }
+ 
+    /**
+     * Matches ASCII bytes of a byte buffer against the keywords, ignoring case, without decoding them.
+     *
+     * @param buffer The buffer holding the line.
+     * @param from   The index of the first byte of the line.
+     * @param to     The index after the last byte of the line.
+     * @return The matching keyword, EMPTY or UNKNOWN.
+     */
+    public static CommandKeyword of(ByteBuffer buffer, int from, int to) {
+        if (from == to) {
+            return EMPTY;
+        }
+        for (CommandKeyword keyword : withLength(to - from)) {
+            int i = 0;
+            while (i < keyword.bytes.length) {
+                int b = buffer.get(from + i);
+                if (b >= 'A' && b <= 'Z') {
+                    b += 'a' - 'A';
+                }
+                if (b != keyword.bytes[i]) {
+                    break;
+                }
+                i++;
+            }
+            if (i == keyword.bytes.length) {
+                return keyword;
+            }
+        }
+        return UNKNOWN;
+    }
+}
+ 
+/**
+ * Line source decoding lines straight from a byte buffer filled from an input stream.
+ * Lines end at a line feed, a carriage return or both. ASCII lines are matched against the command
+ * keywords without creating any string; other lines are decoded as UTF-8.
+ */
+class ByteLineSource implements LineSource {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private final InputStream in;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+ 
+    /**
+     * Constructs a line source reading from an input stream.
+     *
+     * @param in The stream to read from.
+     */
+    public ByteLineSource(InputStream in) {
+        this.in = in;
+        this.buffer = new byte[BUFFER_SIZE];
+    }
+ 
+    @Override
+    public boolean hasNextLine() {
+        return position < limit || fill();
+    }
+ 
+    @Override
+    public String nextLine() {
+        if (!hasNextLine()) {
+            throw new NoSuchElementException("No line found");
+        }
+        int end = findLineEnd();
+        String line = isAscii(position, end)
+                ? new String(buffer, position, end - position, StandardCharsets.ISO_8859_1)
+                : new String(buffer, position, end - position, StandardCharsets.UTF_8);
+        skipLine(end);
+        return line;
+    }
+ 
+    @Override
+    public CommandKeyword nextCommand() {
+        if (!hasNextLine()) {
+            throw new NoSuchElementException("No line found");
+        }
+        int end = findLineEnd();
+        if (!isAscii(position, end)) {
+            return CommandKeyword.of(nextLine());
+        }
+        CommandKeyword command = CommandKeyword.of(buffer, position, end);
+        skipLine(end);
+        return command;
+    }
+ 
+    private boolean isAscii(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+ 
+    /**
+     * Finds the end of the current line, reading more input until its terminator or the end of the input.
+     */
+    private int findLineEnd() {
+        int scanned = 0;
+        while (true) {
+            for (int i = position + scanned; i < limit; i++) {
+                if (buffer[i] == '\n' || buffer[i] == '\r') {
+                    return i;
+                }
+            }
+            scanned = limit - position;
+            if (!fill()) {
+                return limit;
+            }
+        }
+    }
+ 
+    private void skipLine(int end) {
+        position = end;
+        if (position == limit) {
+            return;
+        }
+        if (buffer[position++] == '\r' && (position < limit || fill()) && buffer[position] == '\n') {
+            position++;
+        }
+    }
+ 
+    /**
+     * Moves the unread bytes to the front of the buffer, growing it when full, and reads more input after them.
+     */
+    private boolean fill() {
+        if (endOfInput) {
+            return false;
+        }
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        try {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                endOfInput = true;
+                return false;
+            }
+            limit += read;
+            return true;
+        } catch (IOException e) {
+            endOfInput = true;
+            return false;
+        }
+    }
+}
+ 
+/**
+ * Imports students, professors and courses from CSV files.
+ * Each row is a kind, a name and, for a course, a level: "student,Alice", "professor,Ali" or
+ * "course,java_beginner,bachelor"; kinds and levels are matched ignoring case, an optional first row
+ * starting with "kind" is a header and empty rows are skipped.
+ * The file is memory-mapped and cut into chunks at line ends; the chunks are parsed and validated in
+ * parallel with the rules of the console commands, and the valid rows are then registered in one pass
+ * in file order, so the IDs are the same as if the rows were typed one by one, with one exception:
+ * a course whose name is already taken is reported and skipped, while the console prints "Course exists"
+ * but still adds the course under a new ID before it ends, so the course IDs after such a row are one lower.
+ * A row that fails is reported with its line number and the import goes on.
+ */
+final class CsvImporter {
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final byte STUDENT = 0;
+    private static final byte PROFESSOR = 1;
+    private static final byte COURSE = 2;
+ 
+    private CsvImporter() {
+    }
+ 
+    /**
+     * Imports a CSV file into the registries.
+     *
+     * @param path The CSV file.
+     * @return The report of the import.
+     * @throws IOException If the file cannot be read.
+     */
+    public static ImportReport importFile(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("CSV file too large to map: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int[] bounds = chunkBounds(buffer);
+        int chunkCount = bounds.length - 1;
+        ParsedRow[][] rows = new ParsedRow[chunkCount][];
+        int[] lineCounts = new int[chunkCount];
+        ForkJoinPool.commonPool().invoke(new ChunkTask(0, chunkCount, chunk ->
+                rows[chunk] = parseChunk(buffer.duplicate(), bounds[chunk], bounds[chunk + 1], lineCounts, chunk)));
+ 
+        ImportReport report = new ImportReport();
+        int firstLine = 1;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            for (ParsedRow row : rows[chunk]) {
+                int line = firstLine + row.line;
+                if (row.error != null) {
+                    report.addError(new ImportError(line, row.error.getMessage()));
+                } else {
+                    register(row, line, report);
+                }
+            }
+            firstLine += lineCounts[chunk];
+        }
+        return report;
+    }
+ 
+    private static void register(ParsedRow row, int line, ImportReport report) {
+        switch (row.kind) {
+            case STUDENT:
+                UniversityCoursesManagementSystem.createStudent(row.name);
+                report.studentAdded();
+                break;
+            case PROFESSOR:
+                UniversityCoursesManagementSystem.createProfessor(row.name);
+                report.professorAdded();
+                break;
+            default:
+                if (UniversityCoursesManagementSystem.registerCourseIfAbsent(row.name, row.level) == null) {
+                    report.addError(new ImportError(line, CommandOutcome.COURSE_EXISTS.getMessage()));
+                } else {
+                    report.courseAdded();
+                }
+                break;
+        }
+    }
+ 
+    /**
+     * Cuts the buffer into chunks of about CHUNK_SIZE bytes, each ending just after a line feed.
+     */
+    private static int[] chunkBounds(ByteBuffer buffer) {
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        int end = 0;
+        while (end < buffer.limit()) {
+            end = Math.min(buffer.limit(), end + CHUNK_SIZE);
+            while (end < buffer.limit() && buffer.get(end - 1) != '\n') {
+                end++;
+            }
+            bounds.add(end);
+        }
+        int[] result = new int[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+ 
+    /**
+     * Parses and validates the rows of one chunk, numbering its lines from 0, and counts its lines.
+     */
+    private static ParsedRow[] parseChunk(ByteBuffer buffer, int from, int to, int[] lineCounts, int chunk) {
+        List<ParsedRow> rows = new ArrayList<>();
+        int line = 0;
+        int start = from;
+        while (start < to) {
+            int end = start;
+            while (end < to && buffer.get(end) != '\n') {
+                end++;
+            }
+            int next = end + 1;
+            if (end > start && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+            boolean header = chunk == 0 && line == 0 && startsWithKind(buffer, start, end);
+            if (end > start && !header) {
+                rows.add(parseRow(buffer, start, end, line));
+            }
+            line++;
+            start = next;
+        }
+        lineCounts[chunk] = line;
+        return rows.toArray(new ParsedRow[0]);
+    }
+ 
+    private static boolean startsWithKind(ByteBuffer buffer, int from, int to) {
+        return fieldEnd(buffer, from, to) - from == 4 && decode(buffer, from, from + 4).equalsIgnoreCase("kind");
+    }
+ 
+    private static int fieldEnd(ByteBuffer buffer, int from, int to) {
+        int end = from;
+        while (end < to && buffer.get(end) != ',') {
+            end++;
+        }
+        return end;
+    }
+ 
+    private static String decode(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(from + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+ 
+    private static ParsedRow parseRow(ByteBuffer buffer, int from, int to, int line) {
+        int kindEnd = fieldEnd(buffer, from, to);
+        CommandKeyword kind = CommandKeyword.of(buffer, from, kindEnd);
+        if (kindEnd == to) {
+            return ParsedRow.failed(line);
+        }
+        int nameEnd = fieldEnd(buffer, kindEnd + 1, to);
+        String name = decode(buffer, kindEnd + 1, nameEnd);
+        switch (kind) {
+            case STUDENT:
+                if (nameEnd != to || !UniversityCoursesManagementSystem.containsOnlyLetters(name)
+                        || UniversityCoursesManagementSystem.isReservedWord(name)) {
+                    return ParsedRow.failed(line);
+                }
+                return new ParsedRow(line, STUDENT, name, null);
+            case PROFESSOR:
+                if (nameEnd != to || !UniversityCoursesManagementSystem.containsOnlyLetters(name)) {
+                    return ParsedRow.failed(line);
+                }
+                return new ParsedRow(line, PROFESSOR, name, null);
+            case COURSE:
+                if (nameEnd == to || !UniversityCoursesManagementSystem.containsOnlyLettersCourse(name)
+                        || UniversityCoursesManagementSystem.isReservedWord(name)) {
+                    return ParsedRow.failed(line);
+                }
+                String level = decode(buffer, nameEnd + 1, to).toUpperCase();
+                if (!level.equals("BACHELOR") && !level.equals("MASTER")) {
+                    return ParsedRow.failed(line);
+                }
+                return new ParsedRow(line, COURSE, name, CourseLevel.valueOf(level));
+            default:
+                return ParsedRow.failed(line);
+        }
+    }
+ 
+    /**
+     * A parsed row, or the reason it was rejected.
+     */
+    private static final class ParsedRow {
+        private final int line;
+        private final byte kind;
+        private final String name;
+        private final CourseLevel level;
+        private final CommandOutcome error;
+ 
+        ParsedRow(int line, byte kind, String name, CourseLevel level) {
+            this(line, kind, name, level, null);
+        }
+ 
+        private ParsedRow(int line, byte kind, String name, CourseLevel level, CommandOutcome error) {
+            this.line = line;
+            this.kind = kind;
+            this.name = name;
+            this.level = level;
+            this.error = error;
+        }
+ 
+        static ParsedRow failed(int line) {
+            return new ParsedRow(line, (byte) -1, null, null, CommandOutcome.WRONG_INPUTS);
+        }
+    }
+ 
+    /**
+     * Splits a range of chunks and parses each of them.
+     */
+    private static class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+ 
+        private final int from;
+        private final int to;
+        private final IntConsumer work;
+ 
+        ChunkTask(int from, int to, IntConsumer work) {
+            this.from = from;
+            this.to = to;
+            this.work = work;
+        }
+ 
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (from < to) {
+                    work.accept(from);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ChunkTask(from, middle, work), new ChunkTask(middle, to, work));
+        }
+    }
+}
+ 
+/**
+ * Represents a CSV row that could not be imported.
+ */
+class ImportError {
+    private final int line;
+    private final String message;
+ 
+    /**
+     * Constructs an import error.
+     *
+     * @param line    The line number of the row, starting at 1.
+     * @param message The reason the row was rejected.
+     */
+    ImportError(int line, String message) {
+        this.line = line;
+        this.message = message;
+    }
+ 
+    /**
+     * Retrieves the line number of the row.
+     *
+     * @return The line number.
+     */
+    public int getLine() {
+        return line;
+    }
+ 
+    /**
+     * Retrieves the reason the row was rejected.
+     *
+     * @return The error message.
+     */
+    public String getMessage() {
+        return message;
+    }
+}
+ 
+/**
+ * Counts of the members and courses an import added, and the rows it rejected.
+ */
+class ImportReport {
+    private int students;
+    private int professors;
+    private int courses;
+    private final List<ImportError> errors = new ArrayList<>();
+ 
+    void studentAdded() {
+        students++;
+    }
+ 
+    void professorAdded() {
+        professors++;
+    }
+ 
+    void courseAdded() {
+        courses++;
+    }
+ 
+    void addError(ImportError error) {
+        errors.add(error);
+    }
+ 
+    /**
+     * Retrieves the number of students added.
+     *
+     * @return The number of students.
+     */
+    public int getStudents() {
+        return students;
+    }
+ 
+    /**
+     * Retrieves the number of professors added.
+     *
+     * @return The number of professors.
+     */
+    public int getProfessors() {
+        return professors;
+    }
+ 
+    /**
+     * Retrieves the number of courses added.
+     *
+     * @return The number of courses.
+     */
+    public int getCourses() {
+        return courses;
+    }
+ 
+    /**
+     * Retrieves the rejected rows, in file order.
+     *
+     * @return The import errors.
+     */
+    public List<ImportError> getErrors() {
+        return errors;
+    }
+}
+ 
+/**
+ * Generates reproducible data sets for the benchmarks: the same seed and sizes always give the same
+ * members, courses, enrollments and command streams.
+ */
+final class BenchmarkFixtures {
+    private static final long SEED = 42;
+ 
+    private BenchmarkFixtures() {
+    }
+ 
+    /**
+     * Builds a name of letters only from a number, so every generated name passes the console checks.
+     *
+     * @param prefix The letters the name starts with.
+     * @param number The number written in letters.
+     * @return The generated name.
+     */
+    public static String name(String prefix, int number) {
+        StringBuilder name = new StringBuilder(prefix);
+        do {
+            name.append((char) ('a' + number % 26));
+            number /= 26;
+        } while (number > 0);
+        return name.toString();
+    }
+ 
+    /**
+     * Registers courses, students and professors, in that order, and enrolls a quarter of the students.
+     * In an empty system the students get IDs 1 to studentCount and the professors the IDs after them.
+     *
+     * @param studentCount   The number of students.
+     * @param professorCount The number of professors.
+     * @param courseCount    The number of courses.
+     */
+    public static void populate(int studentCount, int professorCount, int courseCount) {
+        Random random = new Random(SEED);
+        for (int i = 0; i < courseCount; i++) {
+            UniversityCoursesManagementSystem.registerCourse(new Course(name("c_", i),
+                    random.nextBoolean() ? CourseLevel.BACHELOR : CourseLevel.MASTER));
+        }
+        int[] studentIDs = new int[studentCount];
+        for (int i = 0; i < studentCount; i++) {
+            Student student = new Student(name("S", i));
+            UniversityCoursesManagementSystem.registerStudent(student);
+            studentIDs[i] = student.getMemberID();
+        }
+        for (int i = 0; i < professorCount; i++) {
+            UniversityCoursesManagementSystem.registerProfessor(new Professor(name("P", i)));
+        }
+        ConcurrentEnrollmentEngine engine = UniversityCoursesManagementSystem.createEngine();
+        for (int i = 0; i < studentCount / 4; i++) {
+            engine.enroll(studentIDs[i], 1 + random.nextInt(courseCount));
+        }
+    }
+ 
+    /**
+     * Generates a command stream in the console format where every command succeeds: each group adds a
+     * student and a course and enrolls that student in that course.
+     *
+     * @param groupCount    The number of groups of three commands.
+     * @param firstMemberID The ID the first added student will get.
+     * @param firstCourseID The ID the first added course will get.
+     * @return The command stream, as bytes.
+     */
+    public static byte[] commands(int groupCount, int firstMemberID, int firstCourseID) {
+        StringBuilder commands = new StringBuilder();
+        for (int i = 0; i < groupCount; i++) {
+            commands.append("student\n").append(name("N", i)).append('\n')
+                    .append("Course\n").append(name("n_", i)).append(i % 2 == 0 ? "\nmaster\n" : "\nBachelor\n")
+                    .append("enroll\n").append(firstMemberID + i).append('\n').append(firstCourseID + i).append('\n');
+        }
+        return commands.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
+ 
+/**
+ * Measures the course management system at scale: heap per member, registry lookups, duplicate course
+ * detection, enroll, drop, teach and exempt, command decoding, full scans of the member store, and single
+ * and bundle enroll and drop and seat holds from many threads on a few hot courses. Every case reports the
+ * best time per operation over the measured rounds and the bytes allocated per operation, when the JVM can
+ * count them.
+ * Arguments: number of students, number of courses and number of threads.
+ */
+class CourseSystemBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+    private static final int OPERATIONS = 200_000;
+    private static final int HOT_COURSES = 4;
+ 
+    public static void main(String[] args) throws InterruptedException {
+        int studentCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int courseCount = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int professorCount = courseCount / 2;
+        long heapBefore = usedHeap();
+        BenchmarkFixtures.populate(studentCount, professorCount, courseCount);
+        System.out.println("populate " + (usedHeap() - heapBefore) / (studentCount + professorCount) + "B/member");
+        ConcurrentEnrollmentEngine engine = UniversityCoursesManagementSystem.createEngine();
+        int firstProfessor = studentCount + 1;
+        Random random = new Random(7);
+        int[] studentIDs = new int[OPERATIONS];
+        int[] courseIDs = new int[OPERATIONS];
+        int[] professorIDs = new int[OPERATIONS];
+        String[] courseNames = new String[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            studentIDs[i] = 1 + random.nextInt(studentCount);
+            courseIDs[i] = 1 + random.nextInt(courseCount);
+            professorIDs[i] = firstProfessor + random.nextInt(professorCount);
+            courseNames[i] = BenchmarkFixtures.name("C_", random.nextInt(courseCount));
+        }
+ 
+        report("findStudentByID", i -> UniversityCoursesManagementSystem.findStudentByID(studentIDs[i]));
+        report("findCourseByID", i -> UniversityCoursesManagementSystem.findCourseByID(courseIDs[i]));
+        report("findCourseByName", i -> UniversityCoursesManagementSystem.findCourseByName(courseNames[i]));
+        report("addCourse duplicate", i ->
+                UniversityCoursesManagementSystem.registerCourseIfAbsent(courseNames[i], CourseLevel.MASTER));
+        report("enroll+drop", i -> {
+            if (engine.enroll(studentIDs[i], courseIDs[i]) == CommandOutcome.ENROLLED) {
+                engine.drop(studentIDs[i], courseIDs[i]);
+            }
+        });
+        report("teach+exempt", i -> {
+            if (engine.teach(professorIDs[i], courseIDs[i]) == CommandOutcome.ASSIGNED) {
+                engine.exempt(professorIDs[i], courseIDs[i]);
+            }
+        });
+        int groups = OPERATIONS / 3;
+        byte[] commands = BenchmarkFixtures.commands(groups, studentCount + professorCount + 1, courseCount + 1);
+        report("decode keyword", i -> {
+            CommandKeyword.of(commands, 0, 7);
+            CommandKeyword.of(commands, i % 64, i % 64 + 6);
+        });
+        long start = System.nanoTime();
+        long allocated = allocatedBytes();
+        UniversityCoursesManagementSystem.replay(new ByteArrayInputStream(commands), OutputStream.nullOutputStream());
+        print("replay commands", (System.nanoTime() - start) / (groups * 3L), perOperation(allocated, groups * 3L));
+        MemberStore store = MemberStore.get();
+        report("scan members", i -> store.countStudentsIn(courseIDs[i]), store.getHighestID(), 20);
+        contention("hot courses x" + threads + " threads", threads, picks -> {
+            int studentID = 1 + picks.nextInt(studentCount);
+            int courseID = 1 + picks.nextInt(HOT_COURSES);
+            if (engine.enroll(studentID, courseID) != CommandOutcome.ENROLLED) {
+                engine.drop(studentID, courseID);
+            }
+        });
+        contention("hot holds x" + threads + " threads", threads, picks -> {
+            int studentID = 1 + picks.nextInt(studentCount);
+            int courseID = 1 + picks.nextInt(HOT_COURSES);
+            SeatHold hold = engine.hold(studentID, courseID);
+            if (hold == null) {
+                engine.drop(studentID, courseID);
+            } else if (picks.nextBoolean()) {
+                engine.release(hold);
+            } else if (engine.confirm(hold) == CommandOutcome.ENROLLED) {
+                engine.drop(studentID, courseID);
+            }
+        });
+        contention("hot bundles x" + threads + " threads", threads, picks -> {
+            int studentID = 1 + picks.nextInt(studentCount);
+            int first = 1 + picks.nextInt(HOT_COURSES);
+            int second = 1 + (first + picks.nextInt(HOT_COURSES - 1)) % HOT_COURSES;
+            if (engine.enrollAll(studentID, first, second) != CommandOutcome.ENROLLED) {
+                engine.drop(studentID, first);
+                engine.drop(studentID, second);
+            }
+        });
+    }
+ 
+    /**
+     * Runs an operation on a few hot courses from many threads at once and reports the time per
+     * operation over all threads.
+     */
+    private static void contention(String name, int threads, Consumer<Random> operation)
+            throws InterruptedException {
+        int operationsPerThread = OPERATIONS / threads;
+        AtomicLong allocated = new AtomicLong();
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                Random random = new Random(round * 31L + t);
+                workers[t] = new Thread(() -> {
+                    long before = allocatedBytes();
+                    for (int i = 0; i < operationsPerThread; i++) {
+                        operation.accept(random);
+                    }
+                    allocated.addAndGet(before < 0 ? 0 : allocatedBytes() - before);
+                });
+            }
+            allocated.set(0);
+            long start = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long perOperation = (System.nanoTime() - start) / ((long) operationsPerThread * threads);
+            if (round >= WARMUP_ROUNDS) {
+                best = Math.min(best, perOperation);
+            }
+        }
+        long bytes = allocatedBytes() < 0 ? -1 : allocated.get() / ((long) operationsPerThread * threads);
+        print(name, best, bytes);
+    }
+ 
+    private static void report(String name, IntConsumer operation) {
+        report(name, operation, 1, OPERATIONS);
+    }
+ 
+    /**
+     * Runs an operation repeatedly and reports the best time and the allocation per unit of work.
+     *
+     * @param name      The name of the case.
+     * @param operation The operation, given the number of the run.
+     * @param units     The units of work done by one run of the operation.
+     * @param runs      The number of runs per round.
+     */
+    private static void report(String name, IntConsumer operation, int units, int runs) {
+        long best = Long.MAX_VALUE;
+        long bytes = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < runs; i++) {
+                operation.accept(i);
+            }
+            long perOperation = (System.nanoTime() - start) / ((long) runs * units);
+            if (round >= WARMUP_ROUNDS) {
+                best = Math.min(best, perOperation);
+                bytes = perOperation(allocated, (long) runs * units);
+            }
+        }
+        print(name, best, bytes);
+    }
+ 
+    private static long perOperation(long allocatedBefore, long operations) {
+        return allocatedBefore < 0 ? -1 : (allocatedBytes() - allocatedBefore) / operations;
+    }
+ 
+    private static void print(String name, long nanos, long bytes) {
+        System.out.println(name + " " + nanos + "ns/op " + (bytes < 0 ? "n/a" : bytes + "B/op"));
+    }
+ 
+    /**
+     * Gets the bytes of heap in use after a garbage collection.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+ 
+    /**
+     * Gets the bytes allocated so far by the current thread, or a negative number if the JVM does not count them.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
+ 
+/**
+ * Log-linear latency histogram in the style of HdrHistogram: values are grouped by their power of two,
+ * and each power of two is split into {@value #SUB_BUCKETS} linear sub-buckets, so every recorded value
+ * is kept within 12.5% of its true value. Recording is a single lock-free array increment.
+ */
+class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_BUCKETS;
+    private final AtomicLongArray counts;
+    private final LongAdder total;
+    private final LongAdder sum;
+    private final AtomicLong max;
+ 
+    /**
+     * Constructs an empty histogram.
+     */
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.total = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new AtomicLong();
+    }
+ 
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+ 
+    /**
+     * Gets the largest value counted in a bucket.
+     */
+    private static long highestOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+ 
+    /**
+     * Records a value.
+     *
+     * @param nanos The latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(nanos));
+        total.increment();
+        sum.add(nanos);
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+ 
+    /**
+     * Gets a quantile of the recorded values.
+     *
+     * @param quantile The quantile, between 0 and 1.
+     * @return The highest value of the bucket holding the quantile, or 0 if nothing was recorded.
+     */
+    public long getQuantile(double quantile) {
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(highestOf(bucket), max.get());
+            }
+        }
+        return max.get();
+    }
+ 
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return The count.
+     */
+    public long getCount() {
+        return total.sum();
+    }
+ 
+    /**
+     * Gets the sum of the recorded values.
+     *
+     * @return The sum, in nanoseconds.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+ 
+    /**
+     * Gets the largest recorded value.
+     *
+     * @return The maximum, in nanoseconds.
+     */
+    public long getMax() {
+        return max.get();
+    }
+}
+/**
+ * Counts of the outcomes and latency histogram of one command.
+ */
+class CommandStats implements UniversityCoursesManagementSystem.CommandStatsMXBean {
+    private final LongAdder[] outcomes;
+    private final LatencyHistogram latency;
+ 
+    /**
+     * Constructs empty statistics.
+     */
+    public CommandStats() {
+        this.outcomes = new LongAdder[CommandOutcome.values().length];
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = new LongAdder();
+        }
+        this.latency = new LatencyHistogram();
+    }
+ 
+    /**
+     * Records one run of the command.
+     *
+     * @param outcome The outcome of the command.
+     * @param nanos   The time the command took.
+     */
+    void record(CommandOutcome outcome, long nanos) {
+        outcomes[outcome.ordinal()].increment();
+        latency.record(nanos);
+    }
+ 
+    /**
+     * Gets the number of runs that ended with an outcome.
+     *
+     * @param outcome The outcome.
+     * @return The count.
+     */
+    public long getCount(CommandOutcome outcome) {
+        return outcomes[outcome.ordinal()].sum();
+    }
+ 
+    /**
+     * Gets the latency histogram of the command.
+     *
+     * @return The histogram.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+ 
+    @Override
+    public long getSuccessCount() {
+        long count = 0;
+        for (CommandOutcome outcome : CommandOutcome.values()) {
+            if (outcome.isSuccess()) {
+                count += getCount(outcome);
+            }
+        }
+        return count;
+    }
+ 
+    @Override
+    public long getFailureCount() {
+        return latency.getCount() - getSuccessCount();
+    }
+ 
+    @Override
+    public Map<String, Long> getOutcomeCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        for (CommandOutcome outcome : CommandOutcome.values()) {
+            long count = getCount(outcome);
+            if (count > 0) {
+                counts.put(outcome.name(), count);
+            }
+        }
+        return counts;
+    }
+ 
+    @Override
+    public long getP50Nanos() {
+        return latency.getQuantile(0.5);
+    }
+ 
+    @Override
+    public long getP99Nanos() {
+        return latency.getQuantile(0.99);
+    }
+ 
+    @Override
+    public long getP999Nanos() {
+        return latency.getQuantile(0.999);
+    }
+ 
+    @Override
+    public long getMaxNanos() {
+        return latency.getMax();
+    }
+}
+/**
+ * Metrics of the commands processed by the sessions: per command, the count of every outcome and a
+ * latency histogram. Recording takes no lock, so its cost stays in the tens of nanoseconds.
+ */
+class CommandMetrics {
+    private final CommandStats[] commands;
+ 
+    /**
+     * Constructs empty metrics.
+     */
+    public CommandMetrics() {
+        this.commands = new CommandStats[CommandKeyword.values().length];
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = new CommandStats();
+        }
+    }
+ 
+    /**
+     * Gets the outcome of a command that succeeded.
+     *
+     * @param command The command.
+     * @return ADDED, ENROLLED, DROPPED, ASSIGNED or EXEMPTED.
+     */
+    static CommandOutcome successOf(CommandKeyword command) {
+        switch (command) {
+            case ENROLL:
+                return CommandOutcome.ENROLLED;
+            case DROP:
+                return CommandOutcome.DROPPED;
+            case TEACH:
+                return CommandOutcome.ASSIGNED;
+            case EXEMPT:
+                return CommandOutcome.EXEMPTED;
+            default:
+                return CommandOutcome.ADDED;
+        }
+    }
+ 
+    /**
+     * Records one run of a command.
+     *
+     * @param command The command.
+     * @param outcome The outcome of the command.
+     * @param nanos   The time the command took.
+     */
+    public void record(CommandKeyword command, CommandOutcome outcome, long nanos) {
+        commands[command.ordinal()].record(outcome, nanos);
+    }
+ 
+    /**
+     * Gets the statistics of a command.
+     *
+     * @param command The command.
+     * @return The statistics.
+     */
+    public CommandStats get(CommandKeyword command) {
+        return commands[command.ordinal()];
+    }
+ 
+    /**
+     * Publishes the statistics of every command on the platform MBean server,
+     * as ucms:type=CommandMetrics,command=<name>.
+     */
+    public void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (CommandKeyword command : CommandKeyword.values()) {
+            try {
+                ObjectName name = new ObjectName("ucms:type=CommandMetrics,command=" + command.name().toLowerCase());
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(commands[command.ordinal()], name);
+                }
+            } catch (JMException e) {
+                throw new IllegalStateException("Cannot register the metrics of " + command, e);
+            }
+        }
+    }
+ 
+    /**
+     * Writes the metrics in the Prometheus text exposition format.
+     *
+     * @param out The text the metrics are appended to.
+     */
+    public void writePrometheus(StringBuilder out) {
+        out.append("# TYPE ucms_commands_total counter\n");
+        for (CommandKeyword command : CommandKeyword.values()) {
+            for (CommandOutcome outcome : CommandOutcome.values()) {
+                long count = get(command).getCount(outcome);
+                if (count > 0) {
+                    out.append("ucms_commands_total{command=\"").append(command.name().toLowerCase())
+                            .append("\",outcome=\"").append(outcome.name().toLowerCase()).append("\"} ")
+                            .append(count).append('\n');
+                }
+            }
+        }
+        out.append("# TYPE ucms_command_latency_seconds summary\n");
+        double[] quantiles = {0.5, 0.99, 0.999};
+        for (CommandKeyword command : CommandKeyword.values()) {
+            LatencyHistogram latency = get(command).getLatency();
+            if (latency.getCount() == 0) {
+                continue;
+            }
+            String label = "{command=\"" + command.name().toLowerCase() + "\"";
+            for (double quantile : quantiles) {
+                out.append("ucms_command_latency_seconds").append(label).append(",quantile=\"").append(quantile)
+                        .append("\"} ").append(latency.getQuantile(quantile) / 1e9).append('\n');
+            }
+            out.append("ucms_command_latency_seconds_sum").append(label).append("} ")
+                    .append(latency.getSum() / 1e9).append('\n');
+            out.append("ucms_command_latency_seconds_count").append(label).append("} ")
+                    .append(latency.getCount()).append('\n');
+        }
+    }
+}
+/**
+ * Serves the command metrics and the registration aggregates in the Prometheus text format at /metrics on
+ * a local port.
+ */
+class MetricsEndpoint {
+    private final CommandMetrics metrics;
+    private final RegistrationAggregates aggregates;
+    private HttpServer server;
+ 
+    /**
+     * Constructs an endpoint.
+     *
+     * @param metrics    The metrics to serve.
+     * @param aggregates The aggregates to serve.
+     */
+    public MetricsEndpoint(CommandMetrics metrics, RegistrationAggregates aggregates) {
+        this.metrics = metrics;
+        this.aggregates = aggregates;
+    }
+ 
+    /**
+     * Starts serving on the loopback address.
+     *
+     * @param port The port to listen on.
+     * @throws IOException If the port cannot be bound.
+     */
+    public synchronized void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            StringBuilder text = new StringBuilder();
+            metrics.writePrometheus(text);
+            aggregates.writePrometheus(text);
+            byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream response = exchange.getResponseBody()) {
+                response.write(body);
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-endpoint");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+    }
+ 
+    /**
+     * Stops serving.
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+}
+/**
+ * Serves the console commands over a local TCP socket to many clients at once.
+ * Each connection gets its own session, run on a virtual thread when the JDK provides them
+ * and on a thread of a cached pool otherwise; all sessions share one in-memory system through the engine.
+ */
+class CommandServer {
+    private final int port;
+    private final ConcurrentEnrollmentEngine engine;
+ 
+    /**
+     * Constructs a server.
+     *
+     * @param port   The local port to listen on, or 0 for any free port.
+     * @param engine The engine shared by all sessions.
+     */
+    public CommandServer(int port, ConcurrentEnrollmentEngine engine) {
+        this.port = port;
+        this.engine = engine;
+    }
+ 
+    /**
+     * Accepts connections on the loopback address until the thread is interrupted or the socket fails.
+     *
+     * @throws IOException If the server socket cannot be opened.
+     */
+    public void serve() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+            serve(serverSocket);
+        }
+    }
+ 
+    /**
+     * Accepts connections on an open server socket until the thread is interrupted or the socket is closed.
+     *
+     * @param serverSocket The socket to accept connections on.
+     */
+    public void serve(ServerSocket serverSocket) {
+        ExecutorService connections = newConnectionExecutor();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Socket socket = serverSocket.accept();
+                connections.execute(() -> handle(socket));
+            }
+        } catch (IOException e) {
+            // the server socket was closed
+        } finally {
+            connections.shutdown();
+        }
+    }
+ 
+    private void handle(Socket socket) {
+        try (Socket connection = socket;
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(connection.getOutputStream(), true, StandardCharsets.UTF_8)) {
+            new CommandSession(LineSource.of(reader), out, engine).processInput();
+        } catch (IOException e) {
+            // the client went away
+        }
+    }
+ 
+    /**
+     * Creates an executor running each task on a new virtual thread, falling back to a cached thread pool
+     * on JDKs without virtual threads.
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
+ 
+/**
+ * The part of the system one shard process runs in sharded mode: it owns the courses the router assigns
+ * to it, holds a copy of every member, and is the home shard keeping the course count of the members
+ * whose ID maps to it. It takes part in the two-phase commits of the router: a prepared change reserves
+ * what it needs, a seat, a teaching assignment or course slots of a member, so that committing it cannot
+ * fail, and it never waits, so a request conflicting with a prepared change is refused at once.
+ * A prepared seat is held in the seat counter of the course, so every other enrollment sees it as taken,
+ * and every commit is applied through the engine.
+ * The requests of all connections are applied one at a time.
+ */
+class ShardParticipant {
+    private static final byte ENROLL = EnrollmentJournal.ENROLL;
+    private static final byte TEACH = EnrollmentJournal.TEACH;
+    private static final byte UNSEATED = EnrollmentJournal.ENROLL_UNSEATED;
+    private static final byte LOAD = 0;
+    private final ConcurrentEnrollmentEngine engine;
+    private final Map<Long, long[]> prepared = new HashMap<>();
+    private final Set<Long> pendingPairs = new HashSet<>();
+    private final Map<Integer, int[]> loads = new HashMap<>();
+ 
+    /**
+     * Constructs a participant over the registries of this process.
+     *
+     * @param engine The engine applying the committed changes.
+     */
+    public ShardParticipant(ConcurrentEnrollmentEngine engine) {
+        this.engine = engine;
+    }
+ 
+    /**
+     * Applies one request of the router and builds its response.
+     *
+     * @param request The request line.
+     * @return The response line.
+     */
+    public synchronized String handle(String request) {
+        String[] words = request.split(" ");
+        try {
+            switch (words[0]) {
+                case "STUDENT":
+                    return Integer.toString(UniversityCoursesManagementSystem.createStudent(words[1]).getMemberID());
+                case "PROFESSOR":
+                    return Integer.toString(UniversityCoursesManagementSystem.createProfessor(words[1]).getMemberID());
+                case "COURSE":
+                    return Integer.toString(UniversityCoursesManagementSystem.createCourse(words[1],
+                            CourseLevel.valueOf(words[2])).getCourseId());
+                case "PREPARE":
+                    return prepare(Long.parseLong(words[1]), words[2],
+                            Integer.parseInt(words[3]), Integer.parseInt(words[4])).name();
+                case "COMMIT":
+                    return commit(Long.parseLong(words[1])).name();
+                case "ABORT":
+                    abort(Long.parseLong(words[1]));
+                    return "DONE";
+                case "DROP":
+                    return engine.drop(Integer.parseInt(words[1]), Integer.parseInt(words[2])).name();
+                case "EXEMPT":
+                    return engine.exempt(Integer.parseInt(words[1]), Integer.parseInt(words[2])).name();
+                case "RELEASE":
+                    loadOf(Integer.parseInt(words[1]))[0] -= Integer.parseInt(words[2]);
+                    return "DONE";
+                default:
+                    return CommandOutcome.WRONG_INPUTS.name();
+            }
+        } catch (RuntimeException e) {
+            return CommandOutcome.WRONG_INPUTS.name();
+        }
+    }
+ 
+    /**
+     * Checks a change and reserves what it needs until it is committed or aborted.
+     *
+     * @return ADDED if the change is prepared, or the reason it is refused.
+     */
+    private CommandOutcome prepare(long changeID, String kind, int memberID, int target) {
+        if (prepared.containsKey(changeID)) {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        CommandOutcome vote;
+        byte type;
+        if (kind.equals("LOAD")) {
+            type = LOAD;
+            vote = prepareLoad(memberID, target);
+        } else if (kind.equals("ENROLL")) {
+            type = ENROLL;
+            vote = prepareEnroll(memberID, target);
+        } else if (kind.equals("ENROLL_UNCAPPED")) {
+            type = ENROLL;
+            vote = prepareEnroll(memberID, target);
+            if (vote == CommandOutcome.COURSE_FULL) {
+                // as on the console, a full course still takes the enrollment, without a seat
+                type = UNSEATED;
+                vote = CommandOutcome.ADDED;
+                pendingPairs.add((long) memberID << 32 | target);
+            }
+        } else if (kind.equals("TEACH")) {
+            type = TEACH;
+            vote = prepareTeach(memberID, target);
+        } else {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        if (vote == CommandOutcome.ADDED) {
+            prepared.put(changeID, new long[] {type, memberID, target});
+        }
+        return vote;
+    }
+ 
+    private CommandOutcome prepareLoad(int memberID, int count) {
+        boolean student = UniversityCoursesManagementSystem.findStudentByID(memberID) != null;
+        if (!student && UniversityCoursesManagementSystem.findProfessorByID(memberID) == null) {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        int[] load = loadOf(memberID);
+        if (load[0] + load[1] + count > (student ? Student.MAX_ENROLLMENT : Professor.MAX_LOAD)) {
+            return student ? CommandOutcome.MAX_ENROLLMENT_REACHED : CommandOutcome.LOAD_COMPLETE;
+        }
+        load[1] += count;
+        return CommandOutcome.ADDED;
+    }
+ 
+    private CommandOutcome prepareEnroll(int studentID, int courseID) {
+        Student student = UniversityCoursesManagementSystem.findStudentByID(studentID);
+        Course course = UniversityCoursesManagementSystem.findCourseByID(courseID);
+        if (student == null || course == null) {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        long pair = (long) studentID << 32 | courseID;
+        if (student.isEnrolledIn(course) || pendingPairs.contains(pair)) {
+            return CommandOutcome.ALREADY_ENROLLED;
+        }
+        if (!course.holdSeat()) {
+            return CommandOutcome.COURSE_FULL;
+        }
+        pendingPairs.add(pair);
+        return CommandOutcome.ADDED;
+    }
+ 
+    private CommandOutcome prepareTeach(int professorID, int courseID) {
+        Professor professor = UniversityCoursesManagementSystem.findProfessorByID(professorID);
+        Course course = UniversityCoursesManagementSystem.findCourseByID(courseID);
+        if (professor == null || course == null) {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        long pair = (long) professorID << 32 | courseID;
+        if (professor.isTeaching(course) || pendingPairs.contains(pair)) {
+            return CommandOutcome.ALREADY_TEACHING;
+        }
+        pendingPairs.add(pair);
+        return CommandOutcome.ADDED;
+    }
+ 
+    /**
+     * Applies a prepared change.
+     *
+     * @return The outcome of the change, which is a success unless the change was never prepared.
+     */
+    private CommandOutcome commit(long changeID) {
+        long[] change = release(changeID);
+        if (change == null) {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        int memberID = (int) change[1];
+        int target = (int) change[2];
+        switch ((byte) change[0]) {
+            case ENROLL:
+                return engine.enrollInHeldSeat(memberID, target);
+            case UNSEATED:
+                return engine.enrollUncapped(memberID, target);
+            case TEACH:
+                return engine.teach(memberID, target);
+            default:
+                loadOf(memberID)[0] += target;
+                return CommandOutcome.ADDED;
+        }
+    }
+ 
+    private void abort(long changeID) {
+        long[] change = release(changeID);
+        if (change != null && change[0] == ENROLL) {
+            UniversityCoursesManagementSystem.findCourseByID((int) change[2]).releaseHeldSeat();
+        }
+    }
+ 
+    /**
+     * Forgets a prepared change and gives back what it reserved, except the held seat of an enrollment,
+     * which its commit takes and its abort gives back.
+     *
+     * @return The change, or null if it was not prepared.
+     */
+    private long[] release(long changeID) {
+        long[] change = prepared.remove(changeID);
+        if (change == null) {
+            return null;
+        }
+        int memberID = (int) change[1];
+        int target = (int) change[2];
+        if (change[0] == LOAD) {
+            loadOf(memberID)[1] -= target;
+        } else {
+            pendingPairs.remove((long) memberID << 32 | target);
+        }
+        return change;
+    }
+ 
+    /**
+     * Gets the committed and the reserved course counts of a member of this home shard.
+     */
+    private int[] loadOf(int memberID) {
+        return loads.computeIfAbsent(memberID, id -> new int[2]);
+    }
+}
+ 
+/**
+ * Serves the requests of the router to a shard participant, one line per request and per response,
+ * over connections on the loopback address.
+ */
+class ShardServer {
+    private final ServerSocket serverSocket;
+    private final ShardParticipant participant;
+ 
+    /**
+     * Opens the server socket of a shard.
+     *
+     * @param port        The local port to listen on, or 0 for any free port.
+     * @param participant The participant applying the requests.
+     * @throws IOException If the server socket cannot be opened.
+     */
+    public ShardServer(int port, ShardParticipant participant) throws IOException {
+        this.serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        this.participant = participant;
+    }
+ 
+    /**
+     * Gets the port the shard listens on.
+     *
+     * @return The local port.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+ 
+    /**
+     * Accepts connections until the socket is closed, serving each on its own thread.
+     */
+    public void serve() {
+        try (ServerSocket socket = serverSocket) {
+            while (true) {
+                Socket connection = socket.accept();
+                Thread thread = new Thread(() -> handle(connection), "shard-connection");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException e) {
+            // the server socket was closed
+        }
+    }
+ 
+    private void handle(Socket socket) {
+        try (Socket connection = socket;
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(connection.getOutputStream(), true, StandardCharsets.UTF_8)) {
+            connection.setTcpNoDelay(true);
+            String request;
+            while ((request = reader.readLine()) != null) {
+                out.println(participant.handle(request));
+            }
+        } catch (IOException e) {
+            // the router went away
+        }
+    }
+}
+ 
+/**
+ * A connection from the router to one shard, sending one request at a time.
+ */
+class ShardClient implements Closeable {
+    private final Socket socket;
+    private final BufferedReader reader;
+    private final PrintStream out;
+ 
+    /**
+     * Connects to a shard on the loopback address.
+     *
+     * @param port The port of the shard.
+     * @throws IOException If the shard cannot be reached.
+     */
+    public ShardClient(int port) throws IOException {
+        this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        this.out = new PrintStream(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+    }
+ 
+    /**
+     * Sends a request and waits for its response.
+     *
+     * @param request The request line.
+     * @return The response line.
+     * @throws UncheckedIOException If the shard cannot be reached or closed the connection.
+     */
+    public synchronized String call(String request) {
+        out.println(request);
+        try {
+            String response = reader.readLine();
+            if (response == null) {
+                throw new IOException("The shard on port " + socket.getPort() + " closed the connection");
+            }
+            return response;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+ 
+    /**
+     * Sends a request whose response is a command outcome.
+     *
+     * @param request The request line.
+     * @return The outcome sent by the shard.
+     */
+    public CommandOutcome outcome(String request) {
+        return CommandOutcome.valueOf(call(request));
+    }
+ 
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
+ 
+/**
+ * Routes the commands of sharded mode to the shard processes. Course IDs are global: course n lives on
+ * shard (n - 1) mod the number of shards, where it is course (n - 1) / shards + 1, as the router creates
+ * every course and sends each shard its courses in order. Every member is created on every shard with the
+ * same ID, and member m is at home on shard (m - 1) mod shards, which keeps its course count across all
+ * shards.
+ * An enrollment or teaching assignment is a two-phase commit: the course shard and the home shard each
+ * prepare their part, and the router commits both only if both accepted, or aborts the prepared ones.
+ * A console enrollment is prepared as ENROLL_UNCAPPED, which a course shard finding the course full still
+ * accepts, without reserving a seat, as the console does.
+ * A bundle prepares each of its courses and all its course slots at once. A drop or exemption is applied
+ * on the course shard first and then gives back the course slot on the home shard.
+ * The router creates members and courses as a listener of the local registries, which it keeps as the
+ * directory of IDs and names, so the console session runs unchanged over it.
+ * Waitlists are kept by the router on its local courses. Joining, leaving and promoting are serialized by
+ * one router lock, and a drop promotes with an ordinary capped enrollment once the seat is given back.
+ * A decided request, a commit, an abort or a course slot given back, that cannot reach its shard is kept
+ * and sent again before the next request the router routes, so a failure never leaves a change prepared
+ * or a course slot taken. A change whose commit is kept this way is reported as COMMIT_PENDING.
+ */
+class ShardRouter implements EnrollmentService, RegistrationListener, Closeable {
+    private static final CommandOutcome[] ENROLL_REFUSALS = {CommandOutcome.ALREADY_ENROLLED,
+            CommandOutcome.MAX_ENROLLMENT_REACHED, CommandOutcome.COURSE_FULL};
+    private static final CommandOutcome[] TEACH_REFUSALS = {CommandOutcome.LOAD_COMPLETE,
+            CommandOutcome.ALREADY_TEACHING};
+    private final ShardClient[] shards;
+    private final AtomicLong changeIDs = new AtomicLong();
+    private final Object waitlistLock = new Object();
+    private final Queue<Map.Entry<ShardClient, String>> undelivered = new ConcurrentLinkedQueue<>();
+ 
+    /**
+     * Connects to the shards.
+     *
+     * @param ports The ports of the shards, in shard order.
+     * @throws IOException If a shard cannot be reached.
+     */
+    public ShardRouter(int[] ports) throws IOException {
+        this.shards = new ShardClient[ports.length];
+        for (int i = 0; i < ports.length; i++) {
+            shards[i] = new ShardClient(ports[i]);
+        }
+    }
+ 
+    private ShardClient courseShard(int courseID) {
+        return shards[(courseID - 1) % shards.length];
+    }
+ 
+    private int localCourseID(int courseID) {
+        return (courseID - 1) / shards.length + 1;
+    }
+ 
+    private ShardClient homeShard(int memberID) {
+        return shards[(memberID - 1) % shards.length];
+    }
+ 
+    @Override
+    public void courseAdded(Course course) {
+        String id = courseShard(course.getCourseId()).call("COURSE " + course.getCourseName() + " "
+                + course.getCourseLevel().name());
+        expectID(Integer.parseInt(id), localCourseID(course.getCourseId()));
+    }
+ 
+    @Override
+    public void studentAdded(Student student) {
+        for (ShardClient shard : shards) {
+            expectID(Integer.parseInt(shard.call("STUDENT " + student.getMemberName())), student.getMemberID());
+        }
+    }
+ 
+    @Override
+    public void professorAdded(Professor professor) {
+        for (ShardClient shard : shards) {
+            expectID(Integer.parseInt(shard.call("PROFESSOR " + professor.getMemberName())), professor.getMemberID());
+        }
+    }
+ 
+    private static void expectID(int actual, int expected) {
+        if (actual != expected) {
+            throw new IllegalStateException("A shard created ID " + actual + " instead of " + expected
+                    + "; the shards must start empty and only this router may change them");
+        }
+    }
+ 
+    @Override
+    public void studentEnrolled(Student student, Course course) {
+        // rosters live on the shards
+    }
+ 
+    @Override
+    public void studentDropped(Student student, Course course) {
+        // rosters live on the shards
+    }
+ 
+    @Override
+    public void professorAssigned(Professor professor, Course course) {
+        // teaching assignments live on the shards
+    }
+ 
+    @Override
+    public void professorExempted(Professor professor, Course course) {
+        // teaching assignments live on the shards
+    }
+ 
+    @Override
+    public CommandOutcome enroll(int studentID, int courseID) {
+        return enrollAll(studentID, courseID);
+    }
+ 
+    @Override
+    public CommandOutcome enrollUncapped(int studentID, int courseID) {
+        if (UniversityCoursesManagementSystem.findStudentByID(studentID) == null
+                || UniversityCoursesManagementSystem.findCourseByID(courseID) == null) {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        return twoPhaseCommit(
+                Arrays.asList(courseShard(courseID), homeShard(studentID)),
+                Arrays.asList("ENROLL_UNCAPPED " + studentID + " " + localCourseID(courseID),
+                        "LOAD " + studentID + " 1"),
+                ENROLL_REFUSALS);
+    }
+ 
+    @Override
+    public CommandOutcome enrollAll(int studentID, int... courseIDs) {
+        if (UniversityCoursesManagementSystem.findStudentByID(studentID) == null || courseIDs.length == 0
+                || courseIDs.length > Student.MAX_ENROLLMENT) {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        List<ShardClient> participants = new ArrayList<>();
+        List<String> changes = new ArrayList<>();
+        for (int i = 0; i < courseIDs.length; i++) {
+            for (int j = 0; j < i; j++) {
+                if (courseIDs[j] == courseIDs[i]) {
+                    return CommandOutcome.WRONG_INPUTS;
+                }
+            }
+            if (UniversityCoursesManagementSystem.findCourseByID(courseIDs[i]) == null) {
+                return CommandOutcome.WRONG_INPUTS;
+            }
+            participants.add(courseShard(courseIDs[i]));
+            changes.add("ENROLL " + studentID + " " + localCourseID(courseIDs[i]));
+        }
+        participants.add(homeShard(studentID));
+        changes.add("LOAD " + studentID + " " + courseIDs.length);
+        return twoPhaseCommit(participants, changes, ENROLL_REFUSALS);
+    }
+ 
+    @Override
+    public CommandOutcome drop(int studentID, int courseID) {
+        CommandOutcome outcome = release(studentID, courseID, "DROP", CommandOutcome.DROPPED);
+        if (outcome == CommandOutcome.DROPPED) {
+            Course course = UniversityCoursesManagementSystem.findCourseByID(courseID);
+            synchronized (waitlistLock) {
+                Set<Course> woken = Course.wakeParked(studentID);
+                promoteWaitlisted(course);
+                for (Course other : woken) {
+                    if (other != course) {
+                        promoteWaitlisted(other);
+                    }
+                }
+            }
+        }
+        return outcome;
+    }
+ 
+    @Override
+    public CommandOutcome enrollOrWaitlist(int studentID, int courseID, int priority) {
+        Course course = UniversityCoursesManagementSystem.findCourseByID(courseID);
+        if (course == null || priority < Byte.MIN_VALUE || priority > Byte.MAX_VALUE) {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        synchronized (waitlistLock) {
+            CommandOutcome outcome = enroll(studentID, courseID);
+            if (outcome != CommandOutcome.COURSE_FULL) {
+                return outcome;
+            }
+            return course.getWaitlist().add(studentID, priority)
+                    ? CommandOutcome.WAITLISTED : CommandOutcome.ALREADY_WAITLISTED;
+        }
+    }
+ 
+    @Override
+    public CommandOutcome leaveWaitlist(int studentID, int courseID) {
+        Course course = UniversityCoursesManagementSystem.findCourseByID(courseID);
+        if (UniversityCoursesManagementSystem.findStudentByID(studentID) == null || course == null) {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        synchronized (waitlistLock) {
+            return course.getWaitlist().remove(studentID)
+                    ? CommandOutcome.LEFT_WAITLIST : CommandOutcome.NOT_WAITLISTED;
+        }
+    }
+ 
+    /**
+     * Enrolls the first eligible waitlisted student of a course, as Course.promoteWaitlisted does with
+     * the enrollments of the shards; the caller holds the waitlist lock.
+     */
+    private void promoteWaitlisted(Course course) {
+        Waitlist waitlist = course.getWaitlist();
+        WaitlistEntry entry;
+        while ((entry = waitlist.first()) != null) {
+            CommandOutcome outcome = enroll(entry.getStudentID(), course.getCourseId());
+            if (outcome == CommandOutcome.COURSE_FULL) {
+                return;
+            }
+            if (outcome == CommandOutcome.MAX_ENROLLMENT_REACHED) {
+                course.park(entry.getStudentID());
+                continue;
+            }
+            waitlist.remove(entry.getStudentID());
+            if (outcome == CommandOutcome.ENROLLED) {
+                return;
+            }
+        }
+    }
+ 
+    @Override
+    public CommandOutcome teach(int professorID, int courseID) {
+        if (UniversityCoursesManagementSystem.findProfessorByID(professorID) == null
+                || UniversityCoursesManagementSystem.findCourseByID(courseID) == null) {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        return twoPhaseCommit(
+                Arrays.asList(courseShard(courseID), homeShard(professorID)),
+                Arrays.asList("TEACH " + professorID + " " + localCourseID(courseID), "LOAD " + professorID + " 1"),
+                TEACH_REFUSALS);
+    }
+ 
+    @Override
+    public CommandOutcome exempt(int professorID, int courseID) {
+        return release(professorID, courseID, "EXEMPT", CommandOutcome.EXEMPTED);
+    }
+ 
+    /**
+     * Removes a member from a course on its shard and then gives the course slot back on the home shard.
+     */
+    private CommandOutcome release(int memberID, int courseID, String request, CommandOutcome success) {
+        if (UniversityCoursesManagementSystem.findCourseByID(courseID) == null) {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        redeliver();
+        CommandOutcome outcome = courseShard(courseID)
+                .outcome(request + " " + memberID + " " + localCourseID(courseID));
+        if (outcome == success) {
+            deliver(homeShard(memberID), "RELEASE " + memberID + " 1");
+        }
+        return outcome;
+    }
+ 
+    /**
+     * Sends a request whose decision is taken, keeping it to send again if the shard cannot be reached.
+     *
+     * @param shard   The shard to send it to.
+     * @param request The request line.
+     * @return The response line, or null if the request is kept.
+     */
+    private String deliver(ShardClient shard, String request) {
+        try {
+            return shard.call(request);
+        } catch (UncheckedIOException e) {
+            System.err.println("Shard request kept to send again: " + request + ": " + e.getMessage());
+            undelivered.add(Map.entry(shard, request));
+            return null;
+        }
+    }
+ 
+    /**
+     * Sends again the decided requests that could not reach their shard.
+     */
+    private void redeliver() {
+        for (int i = undelivered.size(); i > 0; i--) {
+            Map.Entry<ShardClient, String> entry = undelivered.poll();
+            if (entry == null) {
+                return;
+            }
+            deliver(entry.getKey(), entry.getValue());
+        }
+    }
+ 
+    /**
+     * Prepares every change on its shard, then commits them all if every shard accepted, or aborts the
+     * prepared ones otherwise. The whole round is sent before a failure is reported.
+     *
+     * @param participants The shard of each change.
+     * @param changes      The changes, as the words after the change ID of a PREPARE request.
+     * @param refusals     The refusals in the order a single-process request would report them.
+     * @return The outcome of committing the first change, the first refusal in the order of refusals,
+     *         COMMIT_PENDING if the commit of the first change is kept to be sent again,
+     *         or WRONG_INPUTS if the shard of the first change refused its commit.
+     */
+    private CommandOutcome twoPhaseCommit(List<ShardClient> participants, List<String> changes,
+                                          CommandOutcome[] refusals) {
+        redeliver();
+        long[] prepared = new long[changes.size()];
+        CommandOutcome refusal = null;
+        CommandOutcome committed = null;
+        for (int i = 0; i < changes.size(); i++) {
+            long changeID = changeIDs.incrementAndGet();
+            CommandOutcome vote;
+            try {
+                vote = participants.get(i).outcome("PREPARE " + changeID + " " + changes.get(i));
+            } catch (UncheckedIOException e) {
+                // the shard may have prepared the change before the connection failed, so it is aborted
+                vote = CommandOutcome.WRONG_INPUTS;
+                prepared[i] = changeID;
+            }
+            if (vote == CommandOutcome.ADDED) {
+                prepared[i] = changeID;
+            } else if (refusal == null || rank(vote, refusals) < rank(refusal, refusals)) {
+                refusal = vote;
+            }
+        }
+        List<String> failed = new ArrayList<>();
+        boolean pending = false;
+        for (int i = 0; i < prepared.length; i++) {
+            if (prepared[i] == 0) {
+                continue;
+            }
+            if (refusal != null) {
+                deliver(participants.get(i), "ABORT " + prepared[i]);
+                continue;
+            }
+            String response = deliver(participants.get(i), "COMMIT " + prepared[i]);
+            CommandOutcome outcome = response == null ? null : CommandOutcome.valueOf(response);
+            if (outcome == null) {
+                pending |= i == 0;
+            } else if (!outcome.isSuccess()) {
+                failed.add(changes.get(i));
+            } else if (i == 0) {
+                committed = outcome;
+            }
+        }
+        if (!failed.isEmpty()) {
+            System.err.println("Shards refused the commit of prepared changes: " + failed);
+        }
+        if (refusal != null) {
+            return refusal;
+        }
+        if (committed != null) {
+            return committed;
+        }
+        return pending ? CommandOutcome.COMMIT_PENDING : CommandOutcome.WRONG_INPUTS;
+    }
+ 
+    private static int rank(CommandOutcome refusal, CommandOutcome[] refusals) {
+        for (int i = 0; i < refusals.length; i++) {
+            if (refusals[i] == refusal) {
+                return i;
+            }
+        }
+        return refusals.length;
+    }
+ 
+    @Override
+    public void close() throws IOException {
+        for (ShardClient shard : shards) {
+            shard.close();
+        }
+    }
+}
+ 
+/**
+ * Starts the shard processes of sharded mode on this machine: each is a JVM running this program with
+ * --shard on the same class path, which prints the port it listens on as its first line.
+ */
+class ShardCluster implements Closeable {
+    private final List<Process> processes = new ArrayList<>();
+    private final int[] ports;
+ 
+    /**
+     * Starts the shards and waits until each listens.
+     *
+     * @param shardCount The number of shards.
+     * @throws IOException If a shard cannot be started or exits before listening.
+     */
+    public ShardCluster(int shardCount) throws IOException {
+        this.ports = new int[shardCount];
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "shard-cluster-stop"));
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        UniversityCoursesManagementSystem.class.getName(), "--shard", "0")
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start();
+                processes.add(process);
+                String line = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                        StandardCharsets.UTF_8)).readLine();
+                if (line == null || !line.startsWith("listening ")) {
+                    throw new IOException("Shard " + i + " did not start");
+                }
+                ports[i] = Integer.parseInt(line.substring("listening ".length()));
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+ 
+    /**
+     * Gets the ports of the shards.
+     *
+     * @return The ports, in shard order.
+     */
+    public int[] getPorts() {
+        return ports.clone();
+    }
+ 
+    /**
+     * Stops every shard process.
+     */
+    @Override
+    public void close() {
+        for (Process process : processes) {
+            process.destroy();
+        }
+    }
+}
+ 
+/**
+ * Column store of every university member, indexed by member ID. Each column is a primitive array split
+ * into pages of {@value #PAGE_SIZE} members, so growing the store never copies a column other threads are
+ * writing. Names are kept once each, as UTF-8 bytes in a shared arena, and the courses of a member sit
+ * inline in {@value #SLOTS} fixed slots. A student or professor object is only a view holding its ID.
+ * The columns of a member are guarded like the fields they replace: by the member lock of the engine, or
+ * by the single console thread.
+ */
+final class MemberStore {
+    static final byte STUDENT = 1;
+    static final byte PROFESSOR = 2;
+    static final int SLOTS = 3;
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final MemberStore INSTANCE = new MemberStore();
+    private volatile Page[] pages = new Page[16];
+    private volatile int highestID;
+    private volatile byte[] arena = new byte[1 << 12];
+    private volatile int[] nameOffsets = new int[1 << 8];
+    private int arenaSize;
+    private int nameCount;
+    private int[] nameTable = new int[1 << 9];
+    private final LongAdder[][] membersByCount = {counters(), counters(), counters()};
+ 
+    /**
+     * The columns of {@value #PAGE_SIZE} consecutive member IDs.
+     */
+    private static final class Page {
+        final byte[] types = new byte[PAGE_SIZE];
+        final int[] names = new int[PAGE_SIZE];
+        final byte[] counts = new byte[PAGE_SIZE];
+        final int[] slots = new int[PAGE_SIZE * SLOTS];
+    }
+ 
+    private MemberStore() {
+    }
+ 
+    private static LongAdder[] counters() {
+        LongAdder[] counters = new LongAdder[SLOTS + 1];
+        for (int count = 0; count <= SLOTS; count++) {
+            counters[count] = new LongAdder();
+        }
+        return counters;
+    }
+ 
+    /**
+     * Gets the store shared by every member.
+     *
+     * @return The member store.
+     */
+    public static MemberStore get() {
+        return INSTANCE;
+    }
+ 
+    /**
+     * Adds a member with no courses.
+     *
+     * @param memberID The ID of the member.
+     * @param type     STUDENT or PROFESSOR.
+     * @param name     The name of the member.
+     */
+    public synchronized void add(int memberID, byte type, String name) {
+        int index = memberID >>> PAGE_BITS;
+        Page[] current = pages;
+        if (index >= current.length) {
+            current = Arrays.copyOf(current, Math.max(current.length * 2, index + 1));
+        }
+        if (current[index] == null) {
+            current[index] = new Page();
+        }
+        Page page = current[index];
+        page.types[memberID & PAGE_MASK] = type;
+        page.names[memberID & PAGE_MASK] = intern(name);
+        membersByCount[type][0].increment();
+        pages = current;
+        highestID = Math.max(highestID, memberID);
+    }
+ 
+    /**
+     * Gets the highest member ID in the store.
+     *
+     * @return The highest ID, or 0 if the store is empty.
+     */
+    public int getHighestID() {
+        return highestID;
+    }
+ 
+    /**
+     * Gets the type of a member.
+     *
+     * @param memberID The ID of the member.
+     * @return STUDENT, PROFESSOR, or 0 if there is no such member.
+     */
+    public byte getType(int memberID) {
+        Page page = pageOf(memberID);
+        return page == null ? 0 : page.types[memberID & PAGE_MASK];
+    }
+ 
+    /**
+     * Gets the name of a member, decoded from the arena.
+     *
+     * @param memberID The ID of the member.
+     * @return The name of the member.
+     */
+    public String getName(int memberID) {
+        int name = pageOf(memberID).names[memberID & PAGE_MASK];
+        int[] offsets = nameOffsets;
+        return new String(arena, offsets[name], offsets[name + 1] - offsets[name], StandardCharsets.UTF_8);
+    }
+ 
+    /**
+     * Gets the number of courses of a member.
+     *
+     * @param memberID The ID of the member.
+     * @return The number of used slots.
+     */
+    public int getCount(int memberID) {
+        return pageOf(memberID).counts[memberID & PAGE_MASK];
+    }
+ 
+    /**
+     * Finds the slot holding a course.
+     *
+     * @param memberID The ID of the member.
+     * @param courseID The ID of the course.
+     * @return The slot of the course, or -1 if the member does not have it.
+     */
+    public int indexOf(int memberID, int courseID) {
+        Page page = pageOf(memberID);
+        int first = (memberID & PAGE_MASK) * SLOTS;
+        int count = page.counts[memberID & PAGE_MASK];
+        for (int slot = 0; slot < count; slot++) {
+            if (page.slots[first + slot] == courseID) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+ 
+    /**
+     * Passes the courses of a member, in the order they were added, to an action.
+     *
+     * @param memberID The ID of the member.
+     * @param action   The action to run for each course ID.
+     */
+    public void forEachCourseID(int memberID, IntConsumer action) {
+        Page page = pageOf(memberID);
+        int first = (memberID & PAGE_MASK) * SLOTS;
+        int count = page.counts[memberID & PAGE_MASK];
+        for (int slot = 0; slot < count; slot++) {
+            action.accept(page.slots[first + slot]);
+        }
+    }
+ 
+    /**
+     * Adds a course to the next free slot of a member, without any check.
+     *
+     * @param memberID The ID of the member.
+     * @param courseID The ID of the course.
+     * @throws IllegalStateException If every slot of the member is used.
+     */
+    public void append(int memberID, int courseID) {
+        Page page = pageOf(memberID);
+        int count = page.counts[memberID & PAGE_MASK];
+        if (count == SLOTS) {
+            throw new IllegalStateException("Member " + memberID + " has no free course slot");
+        }
+        page.slots[(memberID & PAGE_MASK) * SLOTS + count] = courseID;
+        page.counts[memberID & PAGE_MASK] = (byte) (count + 1);
+        moveCount(page.types[memberID & PAGE_MASK], count, count + 1);
+    }
+ 
+    /**
+     * Removes a course from the slots of a member, keeping the other courses in order.
+     *
+     * @param memberID The ID of the member.
+     * @param courseID The ID of the course.
+     * @return True if the member had the course, if else false.
+     */
+    public boolean remove(int memberID, int courseID) {
+        int slot = indexOf(memberID, courseID);
+        if (slot < 0) {
+            return false;
+        }
+        Page page = pageOf(memberID);
+        int first = (memberID & PAGE_MASK) * SLOTS;
+        int count = page.counts[memberID & PAGE_MASK] - 1;
+        System.arraycopy(page.slots, first + slot + 1, page.slots, first + slot, count - slot);
+        page.counts[memberID & PAGE_MASK] = (byte) count;
+        moveCount(page.types[memberID & PAGE_MASK], count + 1, count);
+        return true;
+    }
+ 
+    private void moveCount(byte type, int from, int to) {
+        membersByCount[type][from].decrement();
+        membersByCount[type][to].increment();
+    }
+ 
+    /**
+     * Counts the members of a type holding a given number of courses, from counters kept up to date on every
+     * slot write rather than by a scan.
+     *
+     * @param type  STUDENT or PROFESSOR.
+     * @param count The number of courses, from 0 to {@value #SLOTS}.
+     * @return The number of such members.
+     */
+    public long countMembers(byte type, int count) {
+        return membersByCount[type][count].sum();
+    }
+ 
+    /**
+     * Counts the students enrolled in a course by scanning the type and slot columns.
+     *
+     * @param courseID The ID of the course.
+     * @return The number of students having the course in a slot.
+     */
+    public int countStudentsIn(int courseID) {
+        // add publishes the pages before the highest ID, so reading them in the other order
+        // always gives pages covering the ID
+        int last = highestID;
+        Page[] current = pages;
+        int found = 0;
+        for (int index = 0; index <= last >>> PAGE_BITS; index++) {
+            Page page = current[index];
+            int end = index == last >>> PAGE_BITS ? (last & PAGE_MASK) + 1 : PAGE_SIZE;
+            for (int i = 0; page != null && i < end; i++) {
+                if (page.types[i] != STUDENT) {
+                    continue;
+                }
+                for (int slot = i * SLOTS; slot < i * SLOTS + page.counts[i]; slot++) {
+                    if (page.slots[slot] == courseID) {
+                        found++;
+                        break;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+ 
+    private Page pageOf(int memberID) {
+        Page[] current = pages;
+        int index = memberID >>> PAGE_BITS;
+        return memberID < 0 || index >= current.length ? null : current[index];
+    }
+ 
+    /**
+     * Finds a name in the arena, adding it if it is not there yet.
+     *
+     * @return The index of the name.
+     */
+    private int intern(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int mask = nameTable.length - 1;
+        int bucket = hash(bytes, 0, bytes.length) & mask;
+        for (; nameTable[bucket] != 0; bucket = (bucket + 1) & mask) {
+            int candidate = nameTable[bucket] - 1;
+            int from = nameOffsets[candidate];
+            if (Arrays.equals(arena, from, nameOffsets[candidate + 1], bytes, 0, bytes.length)) {
+                return candidate;
+            }
+        }
+        byte[] names = arena;
+        if (arenaSize + bytes.length > names.length) {
+            names = Arrays.copyOf(names, Math.max(names.length * 2, arenaSize + bytes.length));
+        }
+        System.arraycopy(bytes, 0, names, arenaSize, bytes.length);
+        arenaSize += bytes.length;
+        int[] offsets = nameOffsets;
+        if (nameCount + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[nameCount + 1] = arenaSize;
+        arena = names;
+        nameOffsets = offsets;
+        nameTable[bucket] = ++nameCount;
+        if (nameCount * 2 > nameTable.length) {
+            rehash();
+        }
+        return nameCount - 1;
+    }
+ 
+    private void rehash() {
+        int[] table = new int[nameTable.length * 2];
+        int mask = table.length - 1;
+        for (int name = 0; name < nameCount; name++) {
+            int bucket = hash(arena, nameOffsets[name], nameOffsets[name + 1]) & mask;
+            while (table[bucket] != 0) {
+                bucket = (bucket + 1) & mask;
+            }
+            table[bucket] = name + 1;
+        }
+        nameTable = table;
+    }
+ 
+    private static int hash(byte[] bytes, int from, int to) {
+        int hash = 1;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
+interface Enrollable {
+    boolean enroll(Course course);
+    boolean drop(Course course);
+}
+/**
+ * Represents a member of the university, as a view over its columns in the member store.
+ */
+abstract class UniversityMember {
+    private static final AtomicInteger numberOfMembers = new AtomicInteger();
+    private final int memberID;
+    /**
+     * Constructs a UniversityMember with a given name and adds it to the member store.
+     *
+     * @param memberName The name of the university member.
+     * @param memberType The type of the member in the store.
+     */
+    protected UniversityMember(String memberName, byte memberType) {
+        this.memberID = numberOfMembers.incrementAndGet();
+        MemberStore.get().add(memberID, memberType, memberName);
+    }
+    /**
+     * Retrieves the ID of the university member.
+     *
+     * @return The member's ID.
+     */
+    public int getMemberID() {
+        return memberID;
+    }
+    /**
+     * Retrieves the name of the university member.
+     *
+     * @return The member's name.
+     */
+    public String getMemberName() {
+        return MemberStore.get().getName(memberID);
+    }
+    /**
+     * Prints the message of a refused command and ends the program, as the console does.
+     *
+     * @param outcome The outcome of the command.
+     * @return True if the command succeeded; the program ends otherwise.
+     */
+    static boolean acceptOrExit(CommandOutcome outcome) {
+        if (outcome.isSuccess()) {
+            return true;
+        }
+        System.out.println(outcome.getMessage());
+        System.exit(0);
+        return false;
+    }
+}
+/**
+ * Represents a student in the university.
+ */
+class Student extends UniversityMember implements Enrollable {
+    static final int MAX_ENROLLMENT = MemberStore.SLOTS;
+    /**
+     * Constructs a Student with a given name.
+     *
+     * @param memberName The name of the student.
+     */
+    public Student(String memberName) {
+        super(memberName, MemberStore.STUDENT);
+    }
+    /**
+     * Checks if the student is enrolled in a course.
+     *
+     * @param course The course to check.
+     * @return True if the student is enrolled in the course, if else false.
+     */
+    public boolean isEnrolledIn(Course course) {
+        return MemberStore.get().indexOf(getMemberID(), course.getCourseId()) >= 0;
+    }
+    /**
+     * Retrieves the number of courses the student is enrolled in.
+     *
+     * @return The number of enrolled courses.
+     */
+    public int getEnrollmentCount() {
+        return MemberStore.get().getCount(getMemberID());
+    }
+    /**
+     * Passes the ID of every course the student is enrolled in, in the order of enrollment, to an action.
+     *
+     * @param action The action to run for each course ID.
+     */
+    public void forEachEnrolledCourseID(IntConsumer action) {
+        MemberStore.get().forEachCourseID(getMemberID(), action);
+    }
+    /**
+     * Records the course among the student's enrollments, without any check.
+     *
+     * @param course The course the student is enrolled in.
+     */
+    void addEnrollment(Course course) {
+        MemberStore.get().append(getMemberID(), course.getCourseId());
+    }
+    /**
+     * Removes the course from the student's enrollments.
+     *
+     * @param course The course the student leaves.
+     * @return True if the student was enrolled in the course, if else false.
+     */
+    boolean removeEnrollment(Course course) {
+        return MemberStore.get().remove(getMemberID(), course.getCourseId());
+    }
+    /**
+     * Enrolls the student in a course, reporting a refusal instead of ending the program.
+     *
+     * @param course The course to be enrolled in.
+     * @return ENROLLED, or the reason the enrollment was refused.
+     */
+    public CommandOutcome tryEnroll(Course course) {
+        if (isEnrolledIn(course)) {
+            return CommandOutcome.ALREADY_ENROLLED;
+        }
+        if (getEnrollmentCount() >= MAX_ENROLLMENT) {
+            return CommandOutcome.MAX_ENROLLMENT_REACHED;
+        }
+        if (!course.enrollStudent(this)) {
+            return CommandOutcome.COURSE_FULL;
+        }
+        addEnrollment(course);
+        return CommandOutcome.ENROLLED;
+    }
+    /**
+     * Enrolls the student in a seat of a course already taken by a hold or a prepared shard change.
+     * The caller gives the seat back if the enrollment is refused.
+     *
+     * @param course The course to be enrolled in.
+     * @return ENROLLED, or the reason the enrollment was refused.
+     */
+    CommandOutcome tryEnrollInHeldSeat(Course course) {
+        if (isEnrolledIn(course)) {
+            return CommandOutcome.ALREADY_ENROLLED;
+        }
+        if (getEnrollmentCount() >= MAX_ENROLLMENT) {
+            return CommandOutcome.MAX_ENROLLMENT_REACHED;
+        }
+        if (!course.enrollStudentInHeldSeat(this)) {
+            return CommandOutcome.ALREADY_ENROLLED;
+        }
+        addEnrollment(course);
+        return CommandOutcome.ENROLLED;
+    }
+    /**
+     * Enrolls the student in a course as the console does, reporting a refusal instead of ending the program.
+     * The console has never limited the size of a course, so when the course is full the enrollment is
+     * still recorded on the student's side, without a seat on the roster of the course.
+     *
+     * @param course The course to be enrolled in.
+     * @return ENROLLED, ENROLLED_UNSEATED if the course was full, or the reason the enrollment was refused.
+     */
+    public CommandOutcome tryEnrollUncapped(Course course) {
+        CommandOutcome outcome = tryEnroll(course);
+        if (outcome != CommandOutcome.COURSE_FULL) {
+            return outcome;
+        }
+        addEnrollment(course);
+        return CommandOutcome.ENROLLED_UNSEATED;
+    }
+    /**
+     * Drops a course, reporting a refusal instead of ending the program.
+     *
+     * @param course The course to be dropped.
+     * @return DROPPED, or NOT_ENROLLED if the student was not enrolled in the course.
+     */
+    public CommandOutcome tryDrop(Course course) {
+        if (!removeEnrollment(course)) {
+            return CommandOutcome.NOT_ENROLLED;
+        }
+        course.dropStudent(this);
+        return CommandOutcome.DROPPED;
+    }
+    /**
+     * Enrolls the student in a course.
+     * Prints the message and ends the program if the enrollment is refused.
+     *
+     * @param course The course to be enrolled in.
+     * @return True if enrollment is successful, if else false.
+     */
+    @Override
+    public boolean enroll(Course course) {
+        return UniversityMember.acceptOrExit(tryEnrollUncapped(course));
+    }
+    /**
+     * Drops a course that the student was enrolled in.
+     * Prints the message and ends the program if the student is not enrolled in the course.
+     *
+     * @param course The course to be dropped.
+     * @return True if dropping the course is successful, if else false.
+     */
+    @Override
+    public boolean drop(Course course) {
+        return UniversityMember.acceptOrExit(tryDrop(course));
+    }
+}
+/**
+ * Represents a university professor who can teach courses.
+ */
+class Professor extends UniversityMember {
+    static final int MAX_LOAD = 2;
+    /**
+     * Constructs a Professor with a given name.
+     *
+     * @param memberName The name of the professor.
+     */
+    public Professor(String memberName) {
+        super(memberName, MemberStore.PROFESSOR);
+    }
+    /**
+     * Checks if the professor teaches a course.
+     *
+     * @param course The course to check.
+     * @return True if the professor teaches the course, false otherwise.
+     */
+    public boolean isTeaching(Course course) {
+        return MemberStore.get().indexOf(getMemberID(), course.getCourseId()) >= 0;
+    }
+    /**
+     * Retrieves the number of courses the professor teaches.
+     *
+     * @return The professor's load.
+     */
+    public int getLoad() {
+        return MemberStore.get().getCount(getMemberID());
+    }
+    /**
+     * Adds a course to the professor's teaching assignment, without any check.
+     *
+     * @param course The course to be taught.
+     */
+    void assign(Course course) {
+        MemberStore.get().append(getMemberID(), course.getCourseId());
+        UniversityCoursesManagementSystem.notifyProfessorAssigned(this, course);
+    }
+    /**
+     * Removes a course from the professor's teaching assignment, without any check.
+     *
+     * @param course The course to be exempted.
+     */
+    void unassign(Course course) {
+        if (MemberStore.get().remove(getMemberID(), course.getCourseId())) {
+            UniversityCoursesManagementSystem.notifyProfessorExempted(this, course);
+        }
+    }
+    /**
+     * Retrieves the courses the professor teaches.
+     *
+     * @return The professor's courses, in the order they were assigned.
+     */
+    public List<Course> getAssignedCourses() {
+        List<Course> assignedCourses = new ArrayList<>(MAX_LOAD);
+        forEachAssignedCourseID(id -> assignedCourses.add(UniversityCoursesManagementSystem.findCourseByID(id)));
+        return assignedCourses;
+    }
+    /**
+     * Passes the ID of every course the professor teaches, in the order they were assigned, to an action.
+     *
+     * @param action The action to run for each course ID.
+     */
+    public void forEachAssignedCourseID(IntConsumer action) {
+        MemberStore.get().forEachCourseID(getMemberID(), action);
+    }
+    /**
+     * Assigns a course to the professor, reporting a refusal instead of ending the program.
+     *
+     * @param course The course to be taught.
+     * @return ASSIGNED, or the reason the assignment was refused.
+     */
+    public CommandOutcome tryTeach(Course course) {
+        if (getLoad() >= MAX_LOAD) {
+            return CommandOutcome.LOAD_COMPLETE;
+        }
+        if (isTeaching(course)) {
+            return CommandOutcome.ALREADY_TEACHING;
+        }
+        assign(course);
+        return CommandOutcome.ASSIGNED;
+    }
+    /**
+     * Removes a course from the professor's teaching assignment, reporting a refusal instead of ending the program.
+     *
+     * @param course The course to be exempted.
+     * @return EXEMPTED, or NOT_TEACHING if the professor does not teach the course.
+     */
+    public CommandOutcome tryExempt(Course course) {
+        if (!isTeaching(course)) {
+            return CommandOutcome.NOT_TEACHING;
+        }
+        unassign(course);
+        return CommandOutcome.EXEMPTED;
+    }
+    /**
+     * Assigns a course to the professor for teaching.
+     * Prints the message and ends the program if the assignment is refused.
+     *
+     * @param course The course to be taught.
+     * @return True if the course assignment is successful, false otherwise.
+     */
+    public boolean teach(Course course) {
+        return UniversityMember.acceptOrExit(tryTeach(course));
+    }
+    /**
+     * Removes a course from the professor's teaching assignment.
+     * Prints the message and ends the program if the professor does not teach the course.
+     *
+     * @param course The course to be exempted.
+     * @return True if the course removal is successful, false otherwise.
+     */
+    public boolean exempt(Course course) {
+        return UniversityMember.acceptOrExit(tryExempt(course));
+    }
+}
+/**
+ * Represents a course offered by the university.
+ */
+class Course {
+    private String courseName;
+    private CourseLevel courseLevel;
+    private CompactBitmap enrolledStudents;
+    private final SeatAllocator seats;
+    static final int CAPACITY = 3;
+    private static final AtomicInteger numberOfCourses = new AtomicInteger();
+    private int courseId;
+    private Waitlist waitlist;
+    private static final Map<Integer, Set<Course>> PARKED = new ConcurrentHashMap<>();
+ 
+    /**
+     * Constructs a Course with a given name and level.
+     *
+     * @param courseName  The name of the course.
+     * @param courseLevel The level of the course (Bachelor or Master).
+     */
+    public Course(String courseName, CourseLevel courseLevel) {
+        this.courseId = numberOfCourses.incrementAndGet();
+        this.courseName = courseName;
+        this.courseLevel = courseLevel;
+        enrolledStudents = new CompactBitmap();
+        seats = new SeatAllocator(CAPACITY);
+    }
+ 
+ 
+    /**
+     * Enrolls a student in the course, taking a free seat.
+     *
+     * @param student The student to be enrolled.
+     * @return True if the enrollment is successful, false otherwise.
+     */
+    public boolean enrollStudent(Student student) {
+        if (!seats.take()) {
+            return false;
+        }
+        if (enrolledStudents.add(student.getMemberID())) {
+            UniversityCoursesManagementSystem.notifyStudentEnrolled(student, this);
+        } else {
+            seats.giveBack();
+        }
+        return true;
+    }
+    /**
+     * Enrolls a student in a seat already taken by a hold.
+     *
+     * @param student The student to be enrolled.
+     * @return True if the student was added to the roster, false if the student was already on it.
+     */
+    boolean enrollStudentInHeldSeat(Student student) {
+        if (!enrolledStudents.add(student.getMemberID())) {
+            return false;
+        }
+        UniversityCoursesManagementSystem.notifyStudentEnrolled(student, this);
+        return true;
+    }
+    /**
+     * Drops a student from the course, giving the seat back.
+     *
+     * @param student The student to be dropped.
+     */
+    public void dropStudent(Student student) {
+        if (enrolledStudents.remove(student.getMemberID())) {
+            seats.giveBack();
+            UniversityCoursesManagementSystem.notifyStudentDropped(student, this);
+        }
+    }
+    /**
+     * Takes a free seat for a hold, without enrolling anyone. Takes no lock.
+     *
+     * @return True if a seat was taken, false if the course is full.
+     */
+    boolean holdSeat() {
+        return seats.take();
+    }
+    /**
+     * Gives back a seat taken by a hold that was not confirmed. Takes no lock.
+     */
+    void releaseHeldSeat() {
+        seats.giveBack();
+    }
+    /**
+     * Retrieves the number of seats neither enrolled nor held.
+     *
+     * @return The number of free seats.
+     */
+    public int getFreeSeats() {
+        return seats.getFreeSeats();
+    }
+    /**
+     * Checks if a student is on the roster of the course.
+     *
+     * @param student The student to check.
+     * @return True if the student is enrolled in the course, false otherwise.
+     */
+    public boolean hasStudent(Student student) {
+        return enrolledStudents.contains(student.getMemberID());
+    }
+    /**
+     * Retrieves the number of students enrolled in the course.
+     *
+     * @return The number of enrolled students.
+     */
+    public int getEnrolledCount() {
+        return enrolledStudents.size();
+    }
+    /**
+     * Passes the ID of every enrolled student, in increasing order, to an action.
+     *
+     * @param action The action to run for each student ID.
+     */
+    public void forEachEnrolledStudentID(IntConsumer action) {
+        enrolledStudents.forEach(action);
+    }
+    /**
+     * Retrieves the name of the course.
+     *
+     * @return The name of the course.
+     */
+    public String getCourseName() {
+        return courseName;
+    }
+ 
+    /**
+     * Retrieves the level of the course.
+     *
+     * @return The course level.
+     */
+    public CourseLevel getCourseLevel() {
+        return courseLevel;
+    }
+ 
+    /**
+     * Retrieves the unique ID of the course.
+     *
+     * @return The course ID.
+     */
+    public int getCourseId() {
+        return courseId;
+    }
+    /**
+     * Retrieves the maximum number of students of the course.
+     *
+     * @return The capacity of the course.
+     */
+    public int getCapacity() {
+        return CAPACITY;
+    }
+    /**
+     * Gets the waitlist of the course, creating it on first use.
+     * Like the roster, it is only changed under the lock of the course.
+     *
+     * @return The waitlist.
+     */
+    public Waitlist getWaitlist() {
+        if (waitlist == null) {
+            waitlist = new Waitlist();
+        }
+        return waitlist;
+    }
+    /**
+     * Enrolls a student, or puts the student on the waitlist if the course is full.
+     *
+     * @param student  The student.
+     * @param priority The waitlist priority; higher priorities are promoted first, equal ones in arrival order.
+     * @return ENROLLED, WAITLISTED, or the reason the request was refused.
+     */
+    public CommandOutcome enrollOrWaitlist(Student student, int priority) {
+        CommandOutcome outcome = student.tryEnroll(this);
+        if (outcome != CommandOutcome.COURSE_FULL) {
+            return outcome;
+        }
+        return getWaitlist().add(student.getMemberID(), priority)
+                ? CommandOutcome.WAITLISTED : CommandOutcome.ALREADY_WAITLISTED;
+    }
+    /**
+     * Enrolls the first eligible waitlisted student in a seat freed by a drop.
+     * Students already enrolled leave the waitlist; students at their maximum enrollment keep their place
+     * but are parked, so later promotions skip them until they drop a course.
+     *
+     * @param lockOf Gives the lock of a student, held while the student is enrolled or parked,
+     *               or null when no other thread changes students.
+     * @return The promoted student, or null if the course is full or nobody waiting is eligible.
+     */
+    public Student promoteWaitlisted(IntFunction<ReentrantLock> lockOf) {
+        if (waitlist == null) {
+            return null;
+        }
+        WaitlistEntry entry;
+        while (!isFull() && (entry = waitlist.first()) != null) {
+            Student candidate = UniversityCoursesManagementSystem.findStudentByID(entry.getStudentID());
+            ReentrantLock lock = lockOf == null ? null : lockOf.apply(candidate.getMemberID());
+            CommandOutcome outcome;
+            if (lock != null) {
+                lock.lock();
+            }
+            try {
+                outcome = candidate.tryEnroll(this);
+                if (outcome == CommandOutcome.MAX_ENROLLMENT_REACHED) {
+                    park(candidate.getMemberID());
+                }
+            } finally {
+                if (lock != null) {
+                    lock.unlock();
+                }
+            }
+            if (outcome == CommandOutcome.ENROLLED) {
+                waitlist.remove(candidate.getMemberID());
+                return candidate;
+            }
+            if (outcome != CommandOutcome.MAX_ENROLLMENT_REACHED) {
+                waitlist.remove(candidate.getMemberID());
+            }
+        }
+        return null;
+    }
+    /**
+     * Parks a waitlisted student at the maximum enrollment until the student drops a course.
+     * Called under the lock of the course and, when other threads change students, of the student,
+     * so a drop of the student either comes before and is seen by the caller or comes after and wakes it.
+     *
+     * @param studentID The ID of the student.
+     */
+    void park(int studentID) {
+        waitlist.park(studentID);
+        PARKED.computeIfAbsent(studentID,
+                id -> new ConcurrentSkipListSet<>(Comparator.comparingInt(Course::getCourseId))).add(this);
+    }
+    /**
+     * Wakes every waitlist a student is parked on, after the student dropped a course.
+     * Called under the lock of the student; the caller then promotes on each returned course,
+     * which may have had a free seat the student could not take until now.
+     *
+     * @param studentID The ID of the student.
+     * @return The courses whose waitlists were woken, in increasing ID order.
+     */
+    static Set<Course> wakeParked(int studentID) {
+        Set<Course> parkedOn = PARKED.remove(studentID);
+        if (parkedOn == null) {
+            return Collections.emptySet();
+        }
+        for (Course course : parkedOn) {
+            course.waitlist.wake(studentID);
+        }
+        return parkedOn;
+    }
+    /**
+     * Checks if every seat of the course is enrolled or held.
+     *
+     * @return True if the course is full, false otherwise.
+     */
+    public boolean isFull() {
+        return seats.getFreeSeats() == 0;
+    }
+}
+/**
+ * Represents a student waiting for a seat in a course.
+ */
+class WaitlistEntry {
+    private final int studentID;
+    private final int priority;
+    private final long sequence;
+ 
+    /**
+     * Constructs a waitlist entry.
+     *
+     * @param studentID The ID of the waiting student.
+     * @param priority  The priority of the student.
+     * @param sequence  The arrival order of the entry.
+     */
+    WaitlistEntry(int studentID, int priority, long sequence) {
+        this.studentID = studentID;
+        this.priority = priority;
+        this.sequence = sequence;
+    }
+ 
+    /**
+     * Retrieves the ID of the waiting student.
+     *
+     * @return The student ID.
+     */
+    public int getStudentID() {
+        return studentID;
+    }
+ 
+    /**
+     * Retrieves the priority of the entry.
+     *
+     * @return The priority.
+     */
+    public int getPriority() {
+        return priority;
+    }
+ 
+    /**
+     * Retrieves the arrival order of the entry.
+     *
+     * @return The sequence number.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+}
+/**
+ * Students waiting for a seat in a course, ordered by descending priority and then by arrival.
+ * With every student at the default priority 0 it is first-in first-out; a caller may give higher
+ * priorities, for example to MASTER students waiting for a MASTER course.
+ * A student found at the maximum enrollment is parked in a second ordered set, which promotions skip,
+ * and is woken back into the queue once the student drops a course. The ordered sets give the next
+ * student and the map finds a student's entry, so joining, leaving, parking and promoting are all
+ * O(log n). Only waking may happen without the lock of the course; the woken students are taken back
+ * by the next call of first.
+ */
+class Waitlist implements Iterable<WaitlistEntry> {
+    private static final Comparator<WaitlistEntry> ORDER = Comparator
+            .comparingInt((WaitlistEntry entry) -> -entry.getPriority())
+            .thenComparingLong(WaitlistEntry::getSequence);
+    private final NavigableSet<WaitlistEntry> queue;
+    private final NavigableSet<WaitlistEntry> parked;
+    private final Map<Integer, WaitlistEntry> entries;
+    private final Queue<Integer> woken;
+    private long nextSequence;
+ 
+    /**
+     * Constructs an empty waitlist.
+     */
+    public Waitlist() {
+        this.queue = new TreeSet<>(ORDER);
+        this.parked = new TreeSet<>(ORDER);
+        this.entries = new HashMap<>();
+        this.woken = new ConcurrentLinkedQueue<>();
+    }
+ 
+    /**
+     * Adds a student at the end of the students of the same priority.
+     *
+     * @param studentID The ID of the student.
+     * @param priority  The priority of the student.
+     * @return True if the student was added, false if the student was already waiting.
+     */
+    public boolean add(int studentID, int priority) {
+        if (entries.containsKey(studentID)) {
+            return false;
+        }
+        WaitlistEntry entry = new WaitlistEntry(studentID, priority, nextSequence++);
+        entries.put(studentID, entry);
+        queue.add(entry);
+        return true;
+    }
+ 
+    /**
+     * Removes a student from the waitlist.
+     *
+     * @param studentID The ID of the student.
+     * @return True if the student was waiting, false otherwise.
+     */
+    public boolean remove(int studentID) {
+        WaitlistEntry entry = entries.remove(studentID);
+        if (entry == null) {
+            return false;
+        }
+        if (!queue.remove(entry)) {
+            parked.remove(entry);
+        }
+        return true;
+    }
+ 
+    /**
+     * Gets the first student in promotion order who is not parked, after taking back the woken students.
+     *
+     * @return The entry of the student, or null if every waiting student is parked.
+     */
+    public WaitlistEntry first() {
+        Integer studentID;
+        while ((studentID = woken.poll()) != null) {
+            WaitlistEntry entry = entries.get(studentID);
+            if (entry != null && parked.remove(entry)) {
+                queue.add(entry);
+            }
+        }
+        return queue.isEmpty() ? null : queue.first();
+    }
+ 
+    /**
+     * Parks a waiting student, so promotions skip the student until it is woken.
+     *
+     * @param studentID The ID of the student.
+     */
+    public void park(int studentID) {
+        WaitlistEntry entry = entries.get(studentID);
+        if (entry != null && queue.remove(entry)) {
+            parked.add(entry);
+        }
+    }
+ 
+    /**
+     * Wakes a parked student; the student is taken back into the queue by the next call of first.
+     * Safe to call without the lock of the course.
+     *
+     * @param studentID The ID of the student.
+     */
+    public void wake(int studentID) {
+        woken.add(studentID);
+    }
+ 
+    /**
+     * Checks if a student is waiting.
+     *
+     * @param studentID The ID of the student.
+     * @return True if the student is on the waitlist, false otherwise.
+     */
+    public boolean contains(int studentID) {
+        return entries.containsKey(studentID);
+    }
+ 
+    /**
+     * Retrieves the number of waiting students.
+     *
+     * @return The size of the waitlist.
+     */
+    public int size() {
+        return entries.size();
+    }
+ 
+    /**
+     * Iterates over every entry, parked or not, in promotion order. The iterator does not change the waitlist.
+     */
+    @Override
+    public Iterator<WaitlistEntry> iterator() {
+        NavigableSet<WaitlistEntry> all = new TreeSet<>(ORDER);
+        all.addAll(queue);
+        all.addAll(parked);
+        return Collections.unmodifiableSet(all).iterator();
+    }
+}
+/**
+ * Enum representing the outcome of a command, with the message printed for it.
+ */
+enum CommandOutcome {
+    ADDED("Added successfully"),
+    ENROLLED("Enrolled successfully"),
+    ENROLLED_UNSEATED("Enrolled successfully"),
+    DROPPED("Dropped successfully"),
+    ASSIGNED("Professor is successfully assigned to teach this course"),
+    EXEMPTED("Professor is exempted"),
+    WRONG_INPUTS("Wrong inputs"),
+    COURSE_EXISTS("Course exists"),
+    ALREADY_ENROLLED("Student is already enrolled in this course"),
+    MAX_ENROLLMENT_REACHED("Maximum enrollment is reached for the student"),
+    NOT_ENROLLED("Student is not enrolled in this course"),
+    COURSE_FULL("Course is full"),
+    HOLD_ENDED("Seat hold has ended"),
+    WAITLISTED("Student is added to the waitlist"),
+    ALREADY_WAITLISTED("Student is already on the waitlist"),
+    NOT_WAITLISTED("Student is not on the waitlist"),
+    LEFT_WAITLIST("Student left the waitlist"),
+    LOAD_COMPLETE("Professor's load is complete"),
+    ALREADY_TEACHING("Professor is already teaching this course"),
+    NOT_TEACHING("Professor is not teaching this course"),
+    COMMIT_PENDING("Change is committed and will reach its shard later");
+ 
+    private final String message;
+ 
+    /**
+     * Constructor for CommandOutcome enum.
+     *
+     * @param message The message printed for the outcome.
+     */
+    CommandOutcome(String message) {
+        this.message = message;
+    }
+ 
+    /**
+     * Gets the message printed for the outcome.
+     *
+     * @return The outcome message.
+     */
+    public String getMessage() {
+        return message;
+    }
+ 
+    /**
+     * Checks if the outcome reports a successful command.
+     * Waitlist outcomes leave enrollments unchanged and do not count as successes. A commit still
+     * waiting to reach its shard is decided and counts as a success.
+     *
+     * @return True if the command succeeded, false otherwise.
+     */
+    public boolean isSuccess() {
+        return this == ADDED || this == ENROLLED || this == ENROLLED_UNSEATED || this == DROPPED
+                || this == ASSIGNED || this == EXEMPTED || this == COMMIT_PENDING;
+    }
+}
+/**
+ * Applies enroll, drop, waitlist, teach and exempt requests and reports their outcome instead of ending
+ * the program.
+ */
+interface EnrollmentService {
+    CommandOutcome enroll(int studentID, int courseID);
+ 
+    /**
+     * Enrolls a student as the console does: when the course is full, the enrollment is still recorded
+     * on the student's side, without a seat on the roster.
+     *
+     * @param studentID The ID of the student.
+     * @param courseID  The ID of the course.
+     * @return ENROLLED, ENROLLED_UNSEATED if the course was full, or the reason the enrollment was refused.
+     */
+    CommandOutcome enrollUncapped(int studentID, int courseID);
+ 
+    CommandOutcome enrollAll(int studentID, int... courseIDs);
+ 
+    CommandOutcome drop(int studentID, int courseID);
+ 
+    /**
+     * Enrolls a student in a course, or puts the student on its waitlist if the course is full.
+     * A drop from the course gives the freed seat to the first waitlisted student who can take it.
+     *
+     * @param studentID The ID of the student.
+     * @param courseID  The ID of the course.
+     * @param priority  The waitlist priority, between Byte.MIN_VALUE and Byte.MAX_VALUE; higher priorities
+     *                  are promoted first, equal ones in arrival order.
+     * @return ENROLLED, WAITLISTED, or the reason the request was refused.
+     */
+    CommandOutcome enrollOrWaitlist(int studentID, int courseID, int priority);
+ 
+    /**
+     * Takes a student off the waitlist of a course.
+     *
+     * @param studentID The ID of the student.
+     * @param courseID  The ID of the course.
+     * @return LEFT_WAITLIST, or NOT_WAITLISTED if the student was not waiting for the course.
+     */
+    CommandOutcome leaveWaitlist(int studentID, int courseID);
+ 
+    CommandOutcome teach(int professorID, int courseID);
+ 
+    CommandOutcome exempt(int professorID, int courseID);
+}
+/**
+ * Runs enroll, drop, teach and exempt requests from many threads at once.
+ * A request locks the stripe of its course first and then the stripe of its member, always in that
+ * order, so requests on different courses run in parallel and two requests can never deadlock.
+ * A bundle locks the stripes of all its courses in ascending order before the stripe of its student.
+ * Capacity, enrollment and load limits are checked and applied under both locks.
+ * A seat can also be held for a student, which takes it from the course's lock-free seat counter without
+ * any lock, and then confirmed to enroll the student. Holds not confirmed within ucms.hold.seconds are
+ * expired by a timer wheel, without scanning the live holds, and their seats given back.
+ */
+class ConcurrentEnrollmentEngine implements EnrollmentService {
+    private static final int STRIPES = 1024;
+    private static final int WHEEL_BUCKETS = 512;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long HOLD_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("ucms.hold.seconds", 60));
+    private final IdRegistry<Student> students;
+    private final IdRegistry<Professor> professors;
+    private final IdRegistry<Course> courses;
+    private final ReentrantLock[] courseLocks;
+    private final ReentrantLock[] memberLocks;
+    private final HoldTimerWheel wheel;
+    private ScheduledExecutorService ticker;
+ 
+    /**
+     * Constructs an engine over registries of students, professors and courses.
+     *
+     * @param students   The registry of students.
+     * @param professors The registry of professors.
+     * @param courses    The registry of courses.
+     */
+    public ConcurrentEnrollmentEngine(IdRegistry<Student> students, IdRegistry<Professor> professors,
+                                      IdRegistry<Course> courses) {
+        this.students = students;
+        this.professors = professors;
+        this.courses = courses;
+        this.courseLocks = new ReentrantLock[STRIPES];
+        this.memberLocks = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            courseLocks[i] = new ReentrantLock();
+            memberLocks[i] = new ReentrantLock();
+        }
+        this.wheel = new HoldTimerWheel(WHEEL_BUCKETS, TICK_NANOS, System.nanoTime(), this::expire);
+    }
+ 
+    /**
+     * Registers a new student.
+     *
+     * @param name The name of the student.
+     * @return The new student.
+     */
+    public Student addStudent(String name) {
+        return UniversityCoursesManagementSystem.createStudent(name);
+    }
+ 
+    /**
+     * Registers a new professor.
+     *
+     * @param name The name of the professor.
+     * @return The new professor.
+     */
+    public Professor addProfessor(String name) {
+        return UniversityCoursesManagementSystem.createProfessor(name);
+    }
+ 
+    /**
+     * Registers a new course unless its name is already taken.
+     *
+     * @param name  The name of the course.
+     * @param level The level of the course.
+     * @return ADDED, or COURSE_EXISTS if a course with the same name exists.
+     */
+    public CommandOutcome addCourse(String name, CourseLevel level) {
+        Course course = UniversityCoursesManagementSystem.registerCourseIfAbsent(name, level);
+        return course == null ? CommandOutcome.COURSE_EXISTS : CommandOutcome.ADDED;
+    }
+ 
+    /**
+     * Enrolls a student in a course.
+     *
+     * @param studentID The ID of the student.
+     * @param courseID  The ID of the course.
+     * @return ENROLLED, or the reason the enrollment was refused.
+     */
+    @Override
+    public CommandOutcome enroll(int studentID, int courseID) {
+        return enroll(studentID, courseID, false);
+    }
+ 
+    @Override
+    public CommandOutcome enrollUncapped(int studentID, int courseID) {
+        return enroll(studentID, courseID, true);
+    }
+ 
+    private CommandOutcome enroll(int studentID, int courseID, boolean uncapped) {
+        Student student = students.findByID(studentID);
+        Course course = courses.findByID(courseID);
+        if (student == null || course == null) {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        CommandOutcome outcome;
+        long position = 0;
+        ReentrantLock courseLock = courseLock(courseID);
+        ReentrantLock memberLock = memberLock(studentID);
+        courseLock.lock();
+        memberLock.lock();
+        try {
+            outcome = uncapped ? student.tryEnrollUncapped(course) : student.tryEnroll(course);
+            if (outcome.isSuccess()) {
+                byte type = outcome == CommandOutcome.ENROLLED_UNSEATED
+                        ? EnrollmentJournal.ENROLL_UNSEATED : EnrollmentJournal.ENROLL;
+                position = UniversityCoursesManagementSystem.record(type, studentID, courseID, null, null);
+            }
+        } finally {
+            memberLock.unlock();
+            courseLock.unlock();
+        }
+        UniversityCoursesManagementSystem.awaitDurable(position);
+        return outcome;
+    }
+ 
+    /**
+     * Enrolls a student in a bundle of courses: in all of them, or in none.
+     * Every limit is checked for the whole bundle under the locks of all its courses and of the student
+     * before anything changes, and the enrollments are journaled as one group.
+     *
+     * @param studentID The ID of the student.
+     * @param courseIDs The IDs of the courses, all different and at most MAX_ENROLLMENT of them.
+     * @return ENROLLED if the student was enrolled in every course, or the reason none was enrolled.
+     */
+    @Override
+    public CommandOutcome enrollAll(int studentID, int... courseIDs) {
+        Student student = students.findByID(studentID);
+        if (student == null || courseIDs.length == 0 || courseIDs.length > Student.MAX_ENROLLMENT) {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        Course[] bundle = new Course[courseIDs.length];
+        int[] stripes = new int[courseIDs.length];
+        for (int i = 0; i < courseIDs.length; i++) {
+            bundle[i] = courses.findByID(courseIDs[i]);
+            for (int j = 0; j < i; j++) {
+                if (courseIDs[j] == courseIDs[i]) {
+                    return CommandOutcome.WRONG_INPUTS;
+                }
+            }
+            if (bundle[i] == null) {
+                return CommandOutcome.WRONG_INPUTS;
+            }
+            stripes[i] = courseIDs[i] & (STRIPES - 1);
+        }
+        // courses sharing a stripe lock it twice, which the reentrant lock allows
+        Arrays.sort(stripes);
+        CommandOutcome outcome;
+        long position = 0;
+        ReentrantLock memberLock = memberLock(studentID);
+        for (int stripe : stripes) {
+            courseLocks[stripe].lock();
+        }
+        memberLock.lock();
+        try {
+            outcome = checkBundle(student, bundle);
+            int enrolled = 0;
+            while (outcome.isSuccess() && enrolled < bundle.length) {
+                outcome = student.tryEnroll(bundle[enrolled]);
+                if (outcome.isSuccess()) {
+                    enrolled++;
+                }
+            }
+            if (outcome.isSuccess()) {
+                position = UniversityCoursesManagementSystem.recordBundle(studentID, courseIDs);
+            } else {
+                for (int i = enrolled - 1; i >= 0; i--) {
+                    student.tryDrop(bundle[i]);
+                }
+            }
+        } finally {
+            memberLock.unlock();
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                courseLocks[stripes[i]].unlock();
+            }
+        }
+        UniversityCoursesManagementSystem.awaitDurable(position);
+        return outcome;
+    }
+ 
+    /**
+     * Checks every limit of a bundle in the order a single enrollment checks them.
+     *
+     * @return ENROLLED if every course of the bundle can be enrolled in, or the first reason one cannot.
+     */
+    private static CommandOutcome checkBundle(Student student, Course[] bundle) {
+        for (Course course : bundle) {
+            if (student.isEnrolledIn(course)) {
+                return CommandOutcome.ALREADY_ENROLLED;
+            }
+        }
+        if (student.getEnrollmentCount() + bundle.length > Student.MAX_ENROLLMENT) {
+            return CommandOutcome.MAX_ENROLLMENT_REACHED;
+        }
+        for (Course course : bundle) {
+            if (course.isFull()) {
+                return CommandOutcome.COURSE_FULL;
+            }
+        }
+        return CommandOutcome.ENROLLED;
+    }
+ 
+    /**
+     * Drops a student from a course.
+     *
+     * @param studentID The ID of the student.
+     * @param courseID  The ID of the course.
+     * @return DROPPED, or the reason the drop was refused.
+     */
+    @Override
+    public CommandOutcome drop(int studentID, int courseID) {
+        return drop(studentID, courseID, new ArrayList<>(1));
+    }
+ 
+    /**
+     * Drops a student from a course and gives the freed seat to the first eligible waitlisted student.
+     * The student lock is released before the waitlisted student is locked, so only one member lock is
+     * ever held, while the course lock is held throughout and makes the drop and promotion atomic.
+     * The courses the student was parked on for being at the maximum enrollment are then promoted on too,
+     * each under its own course lock once the lock of this course is released.
+     *
+     * @param studentID The ID of the student.
+     * @param courseID  The ID of the course.
+     * @param promoted  The list the promoted student, if any, is added to, or null to leave the waitlist
+     *                  untouched, as a replayed journal does, where the promotion is its own record.
+     * @return DROPPED, or the reason the drop was refused.
+     */
+    CommandOutcome drop(int studentID, int courseID, List<Student> promoted) {
+        Student student = students.findByID(studentID);
+        Course course = courses.findByID(courseID);
+        if (student == null || course == null) {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        CommandOutcome outcome;
+        long position = 0;
+        Set<Course> woken = Collections.emptySet();
+        ReentrantLock courseLock = courseLock(courseID);
+        ReentrantLock memberLock = memberLock(studentID);
+        courseLock.lock();
+        try {
+            memberLock.lock();
+            try {
+                outcome = student.tryDrop(course);
+                if (outcome.isSuccess()) {
+                    position = UniversityCoursesManagementSystem.record(EnrollmentJournal.DROP,
+                            studentID, courseID, null, null);
+                    if (promoted != null) {
+                        woken = Course.wakeParked(studentID);
+                    }
+                }
+            } finally {
+                memberLock.unlock();
+            }
+            if (outcome.isSuccess() && promoted != null) {
+                position = Math.max(position, promoteWaitlisted(course, promoted));
+            }
+        } finally {
+            courseLock.unlock();
+        }
+        for (Course other : woken) {
+            if (other != course) {
+                ReentrantLock otherLock = courseLock(other.getCourseId());
+                otherLock.lock();
+                try {
+                    position = Math.max(position, promoteWaitlisted(other, promoted));
+                } finally {
+                    otherLock.unlock();
+                }
+            }
+        }
+        UniversityCoursesManagementSystem.awaitDurable(position);
+        return outcome;
+    }
+ 
+    /**
+     * Promotes on the waitlist of a course whose lock the caller holds, and journals the promotion.
+     *
+     * @return The journal position of the promotion, or 0 if nobody was promoted.
+     */
+    private long promoteWaitlisted(Course course, List<Student> promoted) {
+        Student next = course.promoteWaitlisted(this::memberLock);
+        if (next == null) {
+            return 0;
+        }
+        promoted.add(next);
+        return UniversityCoursesManagementSystem.record(EnrollmentJournal.PROMOTE,
+                next.getMemberID(), course.getCourseId(), null, null);
+    }
+ 
+    @Override
+    public CommandOutcome enrollOrWaitlist(int studentID, int courseID, int priority) {
+        Student student = students.findByID(studentID);
+        Course course = courses.findByID(courseID);
+        if (student == null || course == null || priority < Byte.MIN_VALUE || priority > Byte.MAX_VALUE) {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        CommandOutcome outcome;
+        long position = 0;
+        ReentrantLock courseLock = courseLock(courseID);
+        ReentrantLock memberLock = memberLock(studentID);
+        courseLock.lock();
+        memberLock.lock();
+        try {
+            outcome = course.enrollOrWaitlist(student, priority);
+            if (outcome == CommandOutcome.ENROLLED) {
+                position = UniversityCoursesManagementSystem.record(EnrollmentJournal.ENROLL,
+                        studentID, courseID, null, null);
+            } else if (outcome == CommandOutcome.WAITLISTED) {
+                position = UniversityCoursesManagementSystem.recordWaitlistJoin(studentID, courseID, priority);
+            }
+        } finally {
+            memberLock.unlock();
+            courseLock.unlock();
+        }
+        UniversityCoursesManagementSystem.awaitDurable(position);
+        return outcome;
+    }
+ 
+    @Override
+    public CommandOutcome leaveWaitlist(int studentID, int courseID) {
+        Course course = courses.findByID(courseID);
+        if (students.findByID(studentID) == null || course == null) {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        CommandOutcome outcome;
+        long position = 0;
+        ReentrantLock courseLock = courseLock(courseID);
+        courseLock.lock();
+        try {
+            outcome = course.getWaitlist().remove(studentID)
+                    ? CommandOutcome.LEFT_WAITLIST : CommandOutcome.NOT_WAITLISTED;
+            if (outcome == CommandOutcome.LEFT_WAITLIST) {
+                position = UniversityCoursesManagementSystem.record(EnrollmentJournal.WAITLIST_LEAVE,
+                        studentID, courseID, null, null);
+            }
+        } finally {
+            courseLock.unlock();
+        }
+        UniversityCoursesManagementSystem.awaitDurable(position);
+        return outcome;
+    }
+ 
+    /**
+     * Assigns a professor to teach a course.
+     *
+     * @param professorID The ID of the professor.
+     * @param courseID    The ID of the course.
+     * @return ASSIGNED, or the reason the assignment was refused.
+     */
+    @Override
+    public CommandOutcome teach(int professorID, int courseID) {
+        Professor professor = professors.findByID(professorID);
+        Course course = courses.findByID(courseID);
+        if (professor == null || course == null) {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        CommandOutcome outcome;
+        long position = 0;
+        ReentrantLock courseLock = courseLock(courseID);
+        ReentrantLock memberLock = memberLock(professorID);
+        courseLock.lock();
+        memberLock.lock();
+        try {
+            outcome = professor.tryTeach(course);
+            if (outcome.isSuccess()) {
+                position = UniversityCoursesManagementSystem.record(EnrollmentJournal.TEACH,
+                        professorID, courseID, null, null);
+            }
+        } finally {
+            memberLock.unlock();
+            courseLock.unlock();
+        }
+        UniversityCoursesManagementSystem.awaitDurable(position);
+        return outcome;
+    }
+ 
+    /**
+     * Exempts a professor from teaching a course.
+     *
+     * @param professorID The ID of the professor.
+     * @param courseID    The ID of the course.
+     * @return EXEMPTED, or the reason the exemption was refused.
+     */
+    @Override
+    public CommandOutcome exempt(int professorID, int courseID) {
+        Professor professor = professors.findByID(professorID);
+        Course course = courses.findByID(courseID);
+        if (professor == null || course == null) {
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        CommandOutcome outcome;
+        long position = 0;
+        ReentrantLock courseLock = courseLock(courseID);
+        ReentrantLock memberLock = memberLock(professorID);
+        courseLock.lock();
+        memberLock.lock();
+        try {
+            outcome = professor.tryExempt(course);
+            if (outcome.isSuccess()) {
+                position = UniversityCoursesManagementSystem.record(EnrollmentJournal.EXEMPT,
+                        professorID, courseID, null, null);
+            }
+        } finally {
+            memberLock.unlock();
+            courseLock.unlock();
+        }
+        UniversityCoursesManagementSystem.awaitDurable(position);
+        return outcome;
+    }
+ 
+    /**
+     * Holds a seat of a course for a student until the hold is confirmed, released or expires.
+     *
+     * @param studentID The ID of the student.
+     * @param courseID  The ID of the course.
+     * @return The hold, or null if the student or course does not exist or the course has no free seat.
+     */
+    public SeatHold hold(int studentID, int courseID) {
+        Course course = courses.findByID(courseID);
+        if (students.findByID(studentID) == null || course == null || !course.holdSeat()) {
+            return null;
+        }
+        startExpiry();
+        SeatHold hold = new SeatHold(studentID, courseID, System.nanoTime() + HOLD_NANOS);
+        wheel.schedule(hold);
+        return hold;
+    }
+ 
+    /**
+     * Confirms a hold, enrolling its student in the held seat.
+     * If the enrollment is refused, the seat is given back.
+     *
+     * @param hold The hold to confirm.
+     * @return ENROLLED, HOLD_ENDED if the hold was already released or expired,
+     * or the reason the enrollment was refused.
+     */
+    public CommandOutcome confirm(SeatHold hold) {
+        if (!hold.end(SeatHold.CONFIRMED)) {
+            return CommandOutcome.HOLD_ENDED;
+        }
+        return enrollInHeldSeat(hold.getStudentID(), hold.getCourseID());
+    }
+ 
+    /**
+     * Enrolls a student in a seat of a course already taken, by a hold or by a prepared shard change.
+     * If the enrollment is refused, the seat is given back.
+     *
+     * @param studentID The ID of the student.
+     * @param courseID  The ID of the course.
+     * @return ENROLLED, or the reason the enrollment was refused.
+     */
+    CommandOutcome enrollInHeldSeat(int studentID, int courseID) {
+        Student student = students.findByID(studentID);
+        Course course = courses.findByID(courseID);
+        if (student == null || course == null) {
+            if (course != null) {
+                course.releaseHeldSeat();
+            }
+            return CommandOutcome.WRONG_INPUTS;
+        }
+        CommandOutcome outcome;
+        long position = 0;
+        ReentrantLock courseLock = courseLock(courseID);
+        ReentrantLock memberLock = memberLock(studentID);
+        courseLock.lock();
+        memberLock.lock();
+        try {
+            outcome = student.tryEnrollInHeldSeat(course);
+            if (outcome.isSuccess()) {
+                position = UniversityCoursesManagementSystem.record(EnrollmentJournal.ENROLL,
+                        studentID, courseID, null, null);
+            } else {
+                course.releaseHeldSeat();
+            }
+        } finally {
+            memberLock.unlock();
+            courseLock.unlock();
+        }
+        UniversityCoursesManagementSystem.awaitDurable(position);
+        return outcome;
+    }
+ 
+    /**
+     * Releases a hold without enrolling its student.
+     *
+     * @param hold The hold to release.
+     * @return True if the hold was still held, false otherwise.
+     */
+    public boolean release(SeatHold hold) {
+        if (!hold.end(SeatHold.RELEASED)) {
+            return false;
+        }
+        courses.findByID(hold.getCourseID()).releaseHeldSeat();
+        return true;
+    }
+ 
+    private void expire(SeatHold hold) {
+        if (hold.end(SeatHold.EXPIRED)) {
+            courses.findByID(hold.getCourseID()).releaseHeldSeat();
+        }
+    }
+ 
+    /**
+     * Starts the background thread advancing the timer wheel every tick, on the first hold.
+     */
+    private synchronized void startExpiry() {
+        if (ticker == null) {
+            ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "seat-hold-expiry");
+                thread.setDaemon(true);
+                return thread;
+            });
+            ticker.scheduleAtFixedRate(() -> wheel.advance(System.nanoTime()),
+                    TICK_NANOS, TICK_NANOS, TimeUnit.NANOSECONDS);
+        }
+    }
+ 
+    private ReentrantLock courseLock(int courseID) {
+        return courseLocks[courseID & (STRIPES - 1)];
+    }
+ 
+    private ReentrantLock memberLock(int memberID) {
+        return memberLocks[memberID & (STRIPES - 1)];
+    }
+}
+/**
+ * Append-only journal of the successful changes to courses, members, enrollments and teaching.
+ * Appends only copy the record into a memory buffer; a flusher thread writes everything appended so far
+ * and forces it to disk with one call, so under load many operations share each flush (group commit).
+ * A caller waits for its own record with awaitDurable before reporting success.
+ * Each record is its body length, a CRC32 of the body and the body, so a record torn by a crash
+ * is detected and dropped when the journal is replayed. The enrollments of a bundle are preceded by an
+ * ENROLL_BUNDLE record counting them, and are replayed only if the whole group was written.
+ * An enrollment the console records in a full course is an ENROLL_UNSEATED record, replayed on the
+ * student's side only, so the roster of the course is left as it was.
+ * Joining and leaving a waitlist are WAITLIST_JOIN and WAITLIST_LEAVE records, the join keeping the
+ * priority in the byte that holds the level of a new course. A seat given to a waitlisted student is a
+ * PROMOTE record, so a replayed drop never promotes on its own.
+ * The journal is a directory of segment files named after the journal position they start at;
+ * a new segment is started when the current one is full or when a snapshot asks for it, so segments
+ * covered by a snapshot can be deleted whole.
+ */
+class EnrollmentJournal implements Closeable {
+    static final byte ADD_COURSE = 1;
+    static final byte ADD_STUDENT = 2;
+    static final byte ADD_PROFESSOR = 3;
+    static final byte ENROLL = 4;
+    static final byte DROP = 5;
+    static final byte TEACH = 6;
+    static final byte EXEMPT = 7;
+    static final byte ENROLL_BUNDLE = 8;
+    static final byte ENROLL_UNSEATED = 9;
+    static final byte WAITLIST_JOIN = 10;
+    static final byte WAITLIST_LEAVE = 11;
+    static final byte PROMOTE = 12;
+    private static final int HEADER_SIZE = 8;
+    private static final int BODY_SIZE = 14;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long SEGMENT_SIZE = 1 << 26;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private final Path directory;
+    private final ReentrantLock lock;
+    private final Condition appended;
+    private final Condition flushed;
+    private final CRC32 crc;
+    private final Thread flusher;
+    private FileChannel channel;
+    private long segmentStart;
+    private ByteBuffer pending;
+    private ByteBuffer writing;
+    private long appendedPosition;
+    private long durablePosition;
+    private boolean rollRequested;
+    private IOException failure;
+    private boolean closed;
+ 
+    private EnrollmentJournal(Path directory, FileChannel channel, long segmentStart, long end) {
+        this.directory = directory;
+        this.channel = channel;
+        this.segmentStart = segmentStart;
+        this.lock = new ReentrantLock();
+        this.appended = lock.newCondition();
+        this.flushed = lock.newCondition();
+        this.crc = new CRC32();
+        this.pending = ByteBuffer.allocate(BUFFER_SIZE);
+        this.writing = ByteBuffer.allocate(BUFFER_SIZE);
+        this.appendedPosition = end;
+        this.durablePosition = end;
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+    }
+ 
+    /**
+     * Opens a journal for appending after its last valid record, dropping any torn record after it.
+     *
+     * @param directory The journal directory.
+     * @param end       The end of the last valid record, as returned by replay.
+     * @return The open journal.
+     * @throws IOException If the segment cannot be opened.
+     */
+    public static EnrollmentJournal open(Path directory, long end) throws IOException {
+        long start = end;
+        for (long segment : segments(directory)) {
+            if (segment <= end) {
+                start = segment;
+            }
+        }
+        FileChannel channel = openSegment(directory, start);
+        channel.truncate(end - start);
+        channel.position(end - start);
+        EnrollmentJournal journal = new EnrollmentJournal(directory, channel, start, end);
+        journal.flusher.start();
+        return journal;
+    }
+ 
+    private static FileChannel openSegment(Path directory, long start) throws IOException {
+        return FileChannel.open(segmentPath(directory, start),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+ 
+    private static Path segmentPath(Path directory, long start) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, start, SEGMENT_SUFFIX));
+    }
+ 
+    /**
+     * Lists the start positions of the segments of a journal directory, in increasing order.
+     *
+     * @param directory The journal directory.
+     * @return The start positions of the segments.
+     * @throws IOException If the directory cannot be listed.
+     */
+    static long[] segments(Path directory) throws IOException {
+        List<Long> starts = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                starts.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        long[] sorted = new long[starts.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = starts.get(i);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+ 
+    /**
+     * Deletes the segments holding only records before a position.
+     *
+     * @param directory The journal directory.
+     * @param position  The position before which records are no longer needed.
+     * @throws IOException If a segment cannot be deleted.
+     */
+    static void deleteSegmentsBefore(Path directory, long position) throws IOException {
+        long[] starts = segments(directory);
+        for (int i = 0; i + 1 < starts.length && starts[i + 1] <= position; i++) {
+            Files.delete(segmentPath(directory, starts[i]));
+        }
+    }
+ 
+    /**
+     * Reads the valid records of a journal between two positions in order and hands each to a handler.
+     * Reading stops at the end of the last segment, at the first torn or corrupt record, or at the limit.
+     *
+     * @param directory The journal directory.
+     * @param from      The position of the first record to read.
+     * @param to        The position to stop at, which must be a record boundary.
+     * @param handler   The handler applying each record.
+     * @return The position after the last record read.
+     * @throws IOException If a segment cannot be read.
+     */
+    public static long replay(Path directory, long from, long to, JournalRecordHandler handler) throws IOException {
+        long[] starts = segments(directory);
+        long end = from;
+        for (int i = 0; i < starts.length && starts[i] < to; i++) {
+            if (i + 1 < starts.length && starts[i + 1] <= from) {
+                continue;
+            }
+            if (starts[i] > end) {
+                break;
+            }
+            long segmentEnd = replaySegment(segmentPath(directory, starts[i]), starts[i], end, to, handler);
+            if (i + 1 < starts.length && segmentEnd != starts[i + 1]) {
+                return segmentEnd;
+            }
+            end = segmentEnd;
+        }
+        return end;
+    }
+ 
+    private static long replaySegment(Path path, long start, long from, long to, JournalRecordHandler handler)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = Math.min(channel.size(), to - start);
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32 crc = new CRC32();
+            int end = (int) (from - start);
+            int groupStart = end;
+            int[] group = null;
+            int grouped = 0;
+            buffer.position(end);
+            while (buffer.remaining() >= HEADER_SIZE) {
+                int bodyLength = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (bodyLength < BODY_SIZE || bodyLength > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer body = buffer.slice();
+                body.limit(bodyLength);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                byte type = body.get();
+                int first = body.getInt();
+                int second = body.getInt();
+                byte argument = body.get();
+                int nameLength = body.getInt();
+                if (nameLength != bodyLength - BODY_SIZE) {
+                    break;
+                }
+                byte[] name = new byte[nameLength];
+                body.get(name);
+                end += HEADER_SIZE + bodyLength;
+                buffer.position(end);
+                if (type == ENROLL_BUNDLE) {
+                    group = new int[2 * second];
+                    grouped = 0;
+                } else if (group != null) {
+                    group[grouped++] = first;
+                    group[grouped++] = second;
+                    if (grouped == group.length) {
+                        for (int i = 0; i < group.length; i += 2) {
+                            handler.apply(ENROLL, group[i], group[i + 1], null, (byte) -1);
+                        }
+                        group = null;
+                    }
+                } else {
+                    handler.apply(type, first, second,
+                            nameLength == 0 ? null : new String(name, StandardCharsets.UTF_8), argument);
+                }
+                if (group == null) {
+                    groupStart = end;
+                }
+            }
+            return start + groupStart;
+        }
+    }
+ 
+    /**
+     * Appends a record to the buffer of the next flush.
+     *
+     * @param type   The type of the change.
+     * @param first  The ID of the member or course the change is about.
+     * @param second The ID of the course for enrollment and teaching changes, otherwise 0.
+     * @param name   The name of a new member or course, otherwise null.
+     * @param level  The level of a new course, otherwise null.
+     * @return The position in the journal after the record, to pass to awaitDurable.
+     */
+    public long append(byte type, int first, int second, String name, CourseLevel level) {
+        byte[] nameBytes = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+        lock.lock();
+        try {
+            checkOpen();
+            return put(type, first, second, nameBytes, (byte) (level == null ? -1 : level.ordinal()));
+        } finally {
+            lock.unlock();
+        }
+    }
+ 
+    /**
+     * Appends a WAITLIST_JOIN record.
+     *
+     * @param studentID The ID of the waiting student.
+     * @param courseID  The ID of the course.
+     * @param priority  The priority of the student, between Byte.MIN_VALUE and Byte.MAX_VALUE.
+     * @return The position in the journal after the record, to pass to awaitDurable.
+     */
+    public long appendWaitlistJoin(int studentID, int courseID, int priority) {
+        lock.lock();
+        try {
+            checkOpen();
+            return put(WAITLIST_JOIN, studentID, courseID, new byte[0], (byte) priority);
+        } finally {
+            lock.unlock();
+        }
+    }
+ 
+    /**
+     * Gets the course level kept in the argument byte of an ADD_COURSE record.
+     *
+     * @param argument The argument byte of the record.
+     * @return The level, or null if the byte holds none.
+     */
+    static CourseLevel levelOf(byte argument) {
+        return argument < 0 ? null : CourseLevel.values()[argument];
+    }
+ 
+    /**
+     * Appends the enrollments of a bundle as one group, which a replay applies whole or not at all.
+     * The group is appended under the journal lock, so it always lands in a single flush and segment.
+     *
+     * @param studentID The ID of the enrolled student.
+     * @param courseIDs The IDs of the courses of the bundle.
+     * @return The position in the journal after the group, to pass to awaitDurable.
+     */
+    public long appendBundle(int studentID, int[] courseIDs) {
+        lock.lock();
+        try {
+            checkOpen();
+            put(ENROLL_BUNDLE, studentID, courseIDs.length, new byte[0], (byte) -1);
+            long position = 0;
+            for (int courseID : courseIDs) {
+                position = put(ENROLL, studentID, courseID, new byte[0], (byte) -1);
+            }
+            return position;
+        } finally {
+            lock.unlock();
+        }
+    }
+ 
+    private void checkOpen() {
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+    }
+ 
+    /**
+     * Copies one record into the pending buffer; the caller holds the journal lock.
+     */
+    private long put(byte type, int first, int second, byte[] nameBytes, byte argument) {
+        int bodyLength = BODY_SIZE + nameBytes.length;
+        if (pending.remaining() < HEADER_SIZE + bodyLength) {
+            ByteBuffer larger = ByteBuffer.allocate(
+                    Math.max(pending.capacity() * 2, pending.position() + HEADER_SIZE + bodyLength));
+            pending.flip();
+            pending = larger.put(pending);
+        }
+        int start = pending.position();
+        pending.putInt(bodyLength).putInt(0).put(type).putInt(first).putInt(second)
+                .put(argument).putInt(nameBytes.length).put(nameBytes);
+        crc.reset();
+        crc.update(pending.array(), start + HEADER_SIZE, bodyLength);
+        pending.putInt(start + 4, (int) crc.getValue());
+        appendedPosition += HEADER_SIZE + bodyLength;
+        appended.signal();
+        return appendedPosition;
+    }
+ 
+    /**
+     * Starts a new segment after the records appended so far, once they are written.
+     *
+     * @return The position the new segment starts at; every record before it is in an older segment.
+     */
+    public long roll() {
+        lock.lock();
+        try {
+            long position = appendedPosition;
+            rollRequested = true;
+            appended.signal();
+            while (segmentStart < position && failure == null && !closed) {
+                flushed.awaitUninterruptibly();
+            }
+            return segmentStart;
+        } finally {
+            lock.unlock();
+        }
+    }
+ 
+    /**
+     * Waits until the journal is forced to disk up to a position.
+     *
+     * @param position The position returned by append.
+     */
+    public void awaitDurable(long position) {
+        lock.lock();
+        try {
+            while (durablePosition < position) {
+                if (failure != null) {
+                    throw new UncheckedIOException(failure);
+                }
+                flushed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+ 
+    /**
+     * Writes out the appended records, then stops the flusher and closes the file.
+     *
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            appended.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+ 
+    /**
+     * Swaps the buffers, writes the records appended since the last flush and forces them to disk,
+     * starting a new segment when asked or when the current one is full,
+     * until the journal is closed and drained or the file fails.
+     */
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer batch;
+            long batchEnd;
+            boolean roll;
+            lock.lock();
+            try {
+                while (pending.position() == 0 && !rollRequested && !closed) {
+                    appended.awaitUninterruptibly();
+                }
+                if (pending.position() == 0 && !rollRequested) {
+                    return;
+                }
+                batch = pending;
+                pending = writing;
+                writing = batch;
+                batchEnd = appendedPosition;
+                roll = rollRequested;
+                rollRequested = false;
+            } finally {
+                lock.unlock();
+            }
+            IOException error = null;
+            FileChannel next = null;
+            try {
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                channel.force(false);
+                if ((roll || batchEnd - segmentStart >= SEGMENT_SIZE) && batchEnd > segmentStart) {
+                    next = openSegment(directory, batchEnd);
+                    channel.close();
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+            batch.clear();
+            lock.lock();
+            try {
+                if (error != null) {
+                    failure = error;
+                } else {
+                    durablePosition = batchEnd;
+                    if (next != null) {
+                        channel = next;
+                        segmentStart = batchEnd;
+                    }
+                }
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (error != null) {
+                return;
+            }
+        }
+    }
+}
+/**
+ * Interface for handlers applying the records of a journal as it is replayed.
+ * The argument is the level of a new course for ADD_COURSE, the priority for WAITLIST_JOIN, otherwise -1.
+ */
+interface JournalRecordHandler {
+    void apply(byte type, int first, int second, String name, byte argument);
+}
+/**
+ * Interface for listeners notified of the changes to courses, rosters and teaching assignments.
+ * Roster and teaching notifications are made while the change is applied, under the locks of its course.
+ */
+interface RegistrationListener {
+ 
+    /**
+     * Called after a course is registered.
+     *
+     * @param course The new course.
+     */
+    void courseAdded(Course course);
+ 
+    /**
+     * Called after a student is registered.
+     *
+     * @param student The new student.
+     */
+    void studentAdded(Student student);
+ 
+    /**
+     * Called after a professor is registered.
+     *
+     * @param professor The new professor.
+     */
+    void professorAdded(Professor professor);
+ 
+    /**
+     * Called after a student joins the roster of a course.
+     *
+     * @param student The enrolled student.
+     * @param course  The course.
+     */
+    void studentEnrolled(Student student, Course course);
+ 
+    /**
+     * Called after a student leaves the roster of a course.
+     *
+     * @param student The dropped student.
+     * @param course  The course.
+     */
+    void studentDropped(Student student, Course course);
+ 
+    /**
+     * Called after a professor is assigned to teach a course.
+     *
+     * @param professor The professor.
+     * @param course    The course.
+     */
+    void professorAssigned(Professor professor, Course course);
+ 
+    /**
+     * Called after a professor is exempted from teaching a course.
+     *
+     * @param professor The professor.
+     * @param course    The course.
+     */
+    void professorExempted(Professor professor, Course course);
+}
+/**
+ * Answers roster and teaching questions in time proportional to the size of the answer.
+ * Listening to the registration changes, it maintains the professors of every course, the courses of
+ * every level and, per level, the courses ordered by their number of free seats. The roster of a course
+ * and the courses of a professor are read from the course and the professor themselves.
+ */
+class RosterQueries implements RegistrationListener {
+    private final Map<Integer, Set<Professor>> professorsByCourse;
+    private final Map<CourseLevel, Queue<Course>> coursesByLevel;
+    private final Map<CourseLevel, NavigableSet<Long>> freeSeatsByLevel;
+ 
+    /**
+     * Constructs a query engine with empty indexes.
+     */
+    public RosterQueries() {
+        this.professorsByCourse = new ConcurrentHashMap<>();
+        this.coursesByLevel = new EnumMap<>(CourseLevel.class);
+        this.freeSeatsByLevel = new EnumMap<>(CourseLevel.class);
+        for (CourseLevel level : CourseLevel.values()) {
+            coursesByLevel.put(level, new ConcurrentLinkedQueue<>());
+            freeSeatsByLevel.put(level, new ConcurrentSkipListSet<>());
+        }
+    }
+ 
+    /**
+     * Builds the key of a course in the free-seat index, ordering by free seats and then by course ID.
+     */
+    private static long freeSeatKey(int freeSeats, Course course) {
+        return (long) freeSeats << 32 | course.getCourseId();
+    }
+ 
+    private void moveFreeSeats(Course course, int from, int to) {
+        NavigableSet<Long> freeSeats = freeSeatsByLevel.get(course.getCourseLevel());
+        freeSeats.remove(freeSeatKey(from, course));
+        freeSeats.add(freeSeatKey(to, course));
+    }
+ 
+    @Override
+    public void courseAdded(Course course) {
+        coursesByLevel.get(course.getCourseLevel()).add(course);
+        freeSeatsByLevel.get(course.getCourseLevel())
+                .add(freeSeatKey(course.getCapacity() - course.getEnrolledCount(), course));
+    }
+ 
+    @Override
+    public void studentAdded(Student student) {
+        // a new student is on no roster yet
+    }
+ 
+    @Override
+    public void professorAdded(Professor professor) {
+        // a new professor teaches no course yet
+    }
+ 
+    @Override
+    public void studentEnrolled(Student student, Course course) {
+        int freeSeats = course.getCapacity() - course.getEnrolledCount();
+        moveFreeSeats(course, freeSeats + 1, freeSeats);
+    }
+ 
+    @Override
+    public void studentDropped(Student student, Course course) {
+        int freeSeats = course.getCapacity() - course.getEnrolledCount();
+        moveFreeSeats(course, freeSeats - 1, freeSeats);
+    }
+ 
+    @Override
+    public void professorAssigned(Professor professor, Course course) {
+        professorsByCourse.computeIfAbsent(course.getCourseId(), id -> ConcurrentHashMap.newKeySet()).add(professor);
+    }
+ 
+    @Override
+    public void professorExempted(Professor professor, Course course) {
+        Set<Professor> professors = professorsByCourse.get(course.getCourseId());
+        if (professors != null) {
+            professors.remove(professor);
+        }
+    }
+ 
+    /**
+     * Finds who teaches a course.
+     *
+     * @param course The course.
+     * @return The professors teaching the course.
+     */
+    public List<Professor> getProfessorsOf(Course course) {
+        Set<Professor> professors = professorsByCourse.get(course.getCourseId());
+        return professors == null ? new ArrayList<>() : new ArrayList<>(professors);
+    }
+ 
+    /**
+     * Finds the courses a professor teaches.
+     *
+     * @param professor The professor.
+     * @return The courses taught by the professor.
+     */
+    public List<Course> getCoursesOf(Professor professor) {
+        return new ArrayList<>(professor.getAssignedCourses());
+    }
+ 
+    /**
+     * Lists the roster of a course.
+     *
+     * @param course The course.
+     * @return The enrolled students, in increasing ID order.
+     */
+    public List<Student> getRoster(Course course) {
+        List<Student> roster = new ArrayList<>(course.getEnrolledCount());
+        course.forEachEnrolledStudentID(id -> roster.add(UniversityCoursesManagementSystem.findStudentByID(id)));
+        return roster;
+    }
+ 
+    /**
+     * Lists the courses of a level.
+     *
+     * @param level The course level.
+     * @return The courses of the level, in registration order.
+     */
+    public List<Course> getCourses(CourseLevel level) {
+        return new ArrayList<>(coursesByLevel.get(level));
+    }
+ 
+    /**
+     * Lists the courses of a level that have at least one free seat.
+     *
+     * @param level The course level.
+     * @return The courses with free seats, the ones with the most free seats first and, among courses
+     *         with as many free seats, in increasing ID order.
+     */
+    public List<Course> getCoursesWithFreeSeats(CourseLevel level) {
+        List<Course> result = new ArrayList<>();
+        NavigableSet<Long> freeSeats = freeSeatsByLevel.get(level);
+        Long key = freeSeats.floor(Long.MAX_VALUE);
+        while (key != null && key >= 1L << 32) {
+            long bucket = key >>> 32 << 32;
+            for (long course : freeSeats.subSet(bucket, true, bucket + (1L << 32), false)) {
+                result.add(UniversityCoursesManagementSystem.findCourseByID((int) course));
             }
-            boolean courseExists = false;
-            for (Course course : courses) {
-                if (course.getCourseName().equalsIgnoreCase(courseName)) {
-                    courseExists = true;
-                    break;
+            key = freeSeats.lower(bucket);
+        }
+        return result;
+    }
+}
+/**
+ * Kind of registration change published on the event bus.
+ */
+enum RegistrationEventType {
+    COURSE_ADDED, STUDENT_ADDED, PROFESSOR_ADDED, STUDENT_ENROLLED, STUDENT_DROPPED, PROFESSOR_ASSIGNED,
+    PROFESSOR_EXEMPTED
+}
+/**
+ * An immutable registration change, numbered in the order it was committed.
+ */
+class RegistrationEvent {
+    private final long sequence;
+    private final RegistrationEventType type;
+    private final int memberID;
+    private final int courseID;
+ 
+    /**
+     * Constructs an event.
+     *
+     * @param sequence The position of the change in commit order, starting at 0.
+     * @param type     The kind of change.
+     * @param memberID The student or professor concerned, or 0 for a new course.
+     * @param courseID The course concerned, or 0 for a new member.
+     */
+    public RegistrationEvent(long sequence, RegistrationEventType type, int memberID, int courseID) {
+        this.sequence = sequence;
+        this.type = type;
+        this.memberID = memberID;
+        this.courseID = courseID;
+    }
+ 
+    /**
+     * Retrieves the position of the change in commit order.
+     *
+     * @return The sequence number.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+ 
+    /**
+     * Retrieves the kind of change.
+     *
+     * @return The event type.
+     */
+    public RegistrationEventType getType() {
+        return type;
+    }
+ 
+    /**
+     * Retrieves the ID of the student or professor concerned.
+     *
+     * @return The member ID, or 0 for a new course.
+     */
+    public int getMemberID() {
+        return memberID;
+    }
+ 
+    /**
+     * Retrieves the ID of the course concerned.
+     *
+     * @return The course ID, or 0 for a new member.
+     */
+    public int getCourseID() {
+        return courseID;
+    }
+ 
+    @Override
+    public String toString() {
+        return sequence + " " + type + " member=" + memberID + " course=" + courseID;
+    }
+}
+/**
+ * Change-data-capture bus of the registration changes. It writes an event for every committed change into
+ * a lock-free ring buffer: the change takes the next sequence number when it is journaled, while it still
+ * holds the locks that order it, and its event is stored in its slot with a single compare-and-set once the
+ * journal has forced it to disk. A change that is rolled back is never journaled and so never published;
+ * the slot of a change whose journal failed holds a marker that subscribers skip.
+ * Writers never wait for readers.
+ * As a Flow.Publisher it delivers the events, in sequence order and only as fast as each subscriber
+ * requests them, from a thread of its own per subscription. A subscriber that falls more than the
+ * capacity of the ring behind the writers has lost events, and gets an error instead.
+ * Nothing is written while there is no subscriber.
+ */
+class RegistrationEventBus implements Flow.Publisher<RegistrationEvent> {
+    private static final int SPINS = 100;
+    private static final long MIN_PARK_NANOS = 50_000;
+    private static final long MAX_PARK_NANOS = 1_000_000;
+    private static final AtomicInteger numberOfSubscriptions = new AtomicInteger();
+    private final AtomicReferenceArray<RegistrationEvent> ring;
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+ 
+    /**
+     * Constructs a bus with an empty ring.
+     *
+     * @param capacity The number of events the ring holds, a power of two.
+     * @throws IllegalArgumentException If the capacity is not a positive power of two.
+     */
+    public RegistrationEventBus(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The capacity must be a power of two: " + capacity);
+        }
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+ 
+    /**
+     * Gets the number of events written so far, which is also the sequence number of the next event.
+     *
+     * @return The number of events written.
+     */
+    public long getPublishedCount() {
+        return cursor.get();
+    }
+ 
+    /**
+     * Takes the next sequence number for a change, while the change still holds the locks that order it.
+     *
+     * @param type     The kind of change.
+     * @param memberID The student or professor concerned, or 0 for a new course.
+     * @param courseID The course concerned, or 0 for a new member.
+     * @return The event to publish once the change is durable, or null when there is no subscriber.
+     */
+    public RegistrationEvent reserve(RegistrationEventType type, int memberID, int courseID) {
+        if (subscriberCount.get() == 0) {
+            return null;
+        }
+        return new RegistrationEvent(cursor.getAndIncrement(), type, memberID, courseID);
+    }
+ 
+    /**
+     * Writes a reserved event into its slot of the ring, unless a writer lapping this one already wrote
+     * a newer event there.
+     *
+     * @param event The event returned by reserve.
+     */
+    public void publish(RegistrationEvent event) {
+        int slot = (int) event.getSequence() & mask;
+        RegistrationEvent current;
+        do {
+            current = ring.get(slot);
+            if (current != null && current.getSequence() > event.getSequence()) {
+                return;
+            }
+        } while (!ring.compareAndSet(slot, current, event));
+    }
+ 
+    /**
+     * Fills the slot of a reserved event whose change did not become durable, so subscribers skip it
+     * instead of waiting for it.
+     *
+     * @param event The event returned by reserve.
+     */
+    public void discard(RegistrationEvent event) {
+        publish(new RegistrationEvent(event.getSequence(), null, 0, 0));
+    }
+ 
+    /**
+     * Subscribes to the events written from now on.
+     *
+     * @param subscriber The subscriber.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super RegistrationEvent> subscriber) {
+        Objects.requireNonNull(subscriber);
+        EventSubscription subscription = new EventSubscription(subscriber);
+        subscriberCount.incrementAndGet();
+        subscription.next = cursor.get();
+        subscriber.onSubscribe(subscription);
+        subscription.thread.start();
+    }
+ 
+    /**
+     * Delivers the events of the ring to one subscriber, from its own thread.
+     */
+    private final class EventSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super RegistrationEvent> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final Thread thread;
+        private volatile boolean cancelled;
+        private volatile Throwable failure;
+        private long next;
+ 
+        EventSubscription(Flow.Subscriber<? super RegistrationEvent> subscriber) {
+            this.subscriber = subscriber;
+            this.thread = new Thread(this, "event-subscription-" + numberOfSubscriptions.incrementAndGet());
+            thread.setDaemon(true);
+        }
+ 
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                failure = new IllegalArgumentException("The number of requested events must be positive: " + n);
+            } else {
+                demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+            LockSupport.unpark(thread);
+        }
+ 
+        @Override
+        public void cancel() {
+            cancelled = true;
+            LockSupport.unpark(thread);
+        }
+ 
+        @Override
+        public void run() {
+            int idle = 0;
+            try {
+                while (!cancelled && failure == null) {
+                    RegistrationEvent event = demand.get() == 0 ? null : ring.get((int) next & mask);
+                    if (event == null || event.getSequence() < next) {
+                        idle = backOff(idle);
+                        continue;
+                    }
+                    if (event.getSequence() > next) {
+                        failure = new IllegalStateException("The subscriber fell " + (cursor.get() - next)
+                                + " events behind and lost events from " + next);
+                        break;
+                    }
+                    idle = 0;
+                    next++;
+                    if (event.getType() == null) {
+                        continue;
+                    }
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    subscriber.onNext(event);
                 }
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                subscriberCount.decrementAndGet();
             }
-            if (courseExists) {
-                System.out.println("Course exists");
-                error = false;
+            if (!cancelled && failure != null) {
+                subscriber.onError(failure);
             }
-            if (courseName.equalsIgnoreCase("student") || courseName.equalsIgnoreCase("course")
-                    || courseName.equalsIgnoreCase("enroll") || courseName.equalsIgnoreCase("drop")
-                    || courseName.equalsIgnoreCase("professor") || courseName.equalsIgnoreCase("teach")
-                    || courseName.equalsIgnoreCase("exempt")) {
-                    System.out.println("Wrong inputs");
-                    error = false;
+        }
+ 
+        /**
+         * Waits for an event or for demand: spins at first, then parks for longer and longer.
+         */
+        private int backOff(int idle) {
+            if (idle < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, MIN_PARK_NANOS << Math.min(idle - SPINS, 5)));
+            }
+            return idle + 1;
+        }
+    }
+}
+/**
+ * Dashboard aggregates kept up to date by the registration changes, each in O(1), and read without locks.
+ * Listening to the changes, it keeps per course level the number of courses, seats and enrolled seats, and
+ * the number of courses with each roster size. The number of students and professors with each number of
+ * courses is kept by the member store, which sees every write of a course slot.
+ * Every counter is a LongAdder updated right after the change it counts, so a read is exact once writers
+ * are quiet and at most the in-flight changes behind otherwise.
+ */
+class RegistrationAggregates implements RegistrationListener {
+    private final LongAdder[] coursesByLevel = adders(CourseLevel.values().length);
+    private final LongAdder[] seatsByLevel = adders(CourseLevel.values().length);
+    private final LongAdder[] enrolledByLevel = adders(CourseLevel.values().length);
+    private final LongAdder[] coursesByRosterSize = adders(Course.CAPACITY + 1);
+ 
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+ 
+    @Override
+    public void courseAdded(Course course) {
+        int level = course.getCourseLevel().ordinal();
+        coursesByLevel[level].increment();
+        seatsByLevel[level].add(course.getCapacity());
+        enrolledByLevel[level].add(course.getEnrolledCount());
+        coursesByRosterSize[course.getEnrolledCount()].increment();
+    }
+ 
+    @Override
+    public void studentAdded(Student student) {
+        // enrollment counts are kept by the member store
+    }
+ 
+    @Override
+    public void professorAdded(Professor professor) {
+        // professor loads are counted by the member store
+    }
+ 
+    @Override
+    public void studentEnrolled(Student student, Course course) {
+        enrolledByLevel[course.getCourseLevel().ordinal()].increment();
+        int rosterSize = course.getEnrolledCount();
+        coursesByRosterSize[rosterSize - 1].decrement();
+        coursesByRosterSize[rosterSize].increment();
+    }
+ 
+    @Override
+    public void studentDropped(Student student, Course course) {
+        enrolledByLevel[course.getCourseLevel().ordinal()].decrement();
+        int rosterSize = course.getEnrolledCount();
+        coursesByRosterSize[rosterSize + 1].decrement();
+        coursesByRosterSize[rosterSize].increment();
+    }
+ 
+    @Override
+    public void professorAssigned(Professor professor, Course course) {
+        // professor loads are counted by the member store
+    }
+ 
+    @Override
+    public void professorExempted(Professor professor, Course course) {
+        // professor loads are counted by the member store
+    }
+ 
+    /**
+     * Gets the fill ratio of a course.
+     *
+     * @param course The course.
+     * @return The enrolled students divided by the capacity, from 0 to 1.
+     */
+    public double getFillRatio(Course course) {
+        return (double) course.getEnrolledCount() / course.getCapacity();
+    }
+ 
+    /**
+     * Gets the number of courses of a level.
+     *
+     * @param level The course level.
+     * @return The number of courses.
+     */
+    public long getCourseCount(CourseLevel level) {
+        return coursesByLevel[level.ordinal()].sum();
+    }
+ 
+    /**
+     * Gets the number of seats of the courses of a level.
+     *
+     * @param level The course level.
+     * @return The total capacity of the level.
+     */
+    public long getSeatCount(CourseLevel level) {
+        return seatsByLevel[level.ordinal()].sum();
+    }
+ 
+    /**
+     * Gets the number of enrolled seats of the courses of a level.
+     *
+     * @param level The course level.
+     * @return The number of enrollments in the level.
+     */
+    public long getEnrolledSeatCount(CourseLevel level) {
+        return enrolledByLevel[level.ordinal()].sum();
+    }
+ 
+    /**
+     * Gets the seat utilisation of a level.
+     *
+     * @param level The course level.
+     * @return The enrolled seats divided by the seats, or 0 if the level has no course.
+     */
+    public double getUtilisation(CourseLevel level) {
+        long seats = getSeatCount(level);
+        return seats == 0 ? 0 : (double) getEnrolledSeatCount(level) / seats;
+    }
+ 
+    /**
+     * Gets the number of courses with a given number of enrolled students.
+     *
+     * @param rosterSize The number of enrolled students, from 0 to the course capacity.
+     * @return The number of courses with that roster size.
+     */
+    public long getCoursesWithRosterSize(int rosterSize) {
+        return coursesByRosterSize[rosterSize].sum();
+    }
+ 
+    /**
+     * Gets the number of professors with each load.
+     *
+     * @return The number of professors teaching 0 to {@link Professor#MAX_LOAD} courses, by load.
+     */
+    public long[] getProfessorLoadDistribution() {
+        long[] distribution = new long[Professor.MAX_LOAD + 1];
+        for (int load = 0; load <= Professor.MAX_LOAD; load++) {
+            distribution[load] = MemberStore.get().countMembers(MemberStore.PROFESSOR, load);
+        }
+        return distribution;
+    }
+ 
+    /**
+     * Gets the number of students enrolled in {@link Student#MAX_ENROLLMENT} courses.
+     *
+     * @return The number of students who cannot enroll in another course.
+     */
+    public long getStudentsAtMaxEnrollment() {
+        return MemberStore.get().countMembers(MemberStore.STUDENT, Student.MAX_ENROLLMENT);
+    }
+ 
+    /**
+     * Writes the aggregates in the Prometheus text exposition format.
+     *
+     * @param out The text the aggregates are appended to.
+     */
+    public void writePrometheus(StringBuilder out) {
+        out.append("# TYPE ucms_courses gauge\n");
+        for (CourseLevel level : CourseLevel.values()) {
+            out.append("ucms_courses{level=\"").append(level.name().toLowerCase()).append("\"} ")
+                    .append(getCourseCount(level)).append('\n');
+        }
+        out.append("# TYPE ucms_seats gauge\n");
+        for (CourseLevel level : CourseLevel.values()) {
+            String label = "{level=\"" + level.name().toLowerCase() + "\"";
+            out.append("ucms_seats").append(label).append(",state=\"total\"} ")
+                    .append(getSeatCount(level)).append('\n');
+            out.append("ucms_seats").append(label).append(",state=\"enrolled\"} ")
+                    .append(getEnrolledSeatCount(level)).append('\n');
+        }
+        out.append("# TYPE ucms_courses_by_roster_size gauge\n");
+        for (int rosterSize = 0; rosterSize <= Course.CAPACITY; rosterSize++) {
+            out.append("ucms_courses_by_roster_size{students=\"").append(rosterSize).append("\"} ")
+                    .append(getCoursesWithRosterSize(rosterSize)).append('\n');
+        }
+        out.append("# TYPE ucms_professors_by_load gauge\n");
+        long[] loads = getProfessorLoadDistribution();
+        for (int load = 0; load < loads.length; load++) {
+            out.append("ucms_professors_by_load{courses=\"").append(load).append("\"} ")
+                    .append(loads[load]).append('\n');
+        }
+        out.append("# TYPE ucms_students_at_max_enrollment gauge\n");
+        out.append("ucms_students_at_max_enrollment ").append(getStudentsAtMaxEnrollment()).append('\n');
+    }
+}
+/**
+ * Compact copy of the whole state of the system as of a journal position: the courses and members in
+ * ID order, the enrollments, the enrollments recorded without a roster seat, the teaching assignments
+ * and the waitlists.
+ * It is kept up to date by folding journal records into it, never by reading the live objects,
+ * so it can be written while the system keeps serving changes.
+ * On disk it is a header, the courses, the members, the sorted relation pairs, the waitlist entries by
+ * course in promotion order and a CRC32 of everything.
+ */
+class StateSnapshot {
+    private static final int MAGIC = 0x55434D53;
+    private static final int VERSION = 3;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+    private long position;
+    private final List<String> courseNames;
+    private final List<CourseLevel> courseLevels;
+    private final List<String> memberNames;
+    private final BitSet professorIDs;
+    private final Set<Long> enrollments;
+    private final Set<Long> unseatedEnrollments;
+    private final Set<Long> assignments;
+    private final Map<Integer, Waitlist> waitlists;
+ 
+    private StateSnapshot(long position) {
+        this.position = position;
+        this.courseNames = new ArrayList<>();
+        this.courseLevels = new ArrayList<>();
+        this.memberNames = new ArrayList<>();
+        this.professorIDs = new BitSet();
+        this.enrollments = new HashSet<>();
+        this.unseatedEnrollments = new HashSet<>();
+        this.assignments = new HashSet<>();
+        this.waitlists = new TreeMap<>();
+    }
+ 
+    /**
+     * Copies the live state of the system. Only safe while no change is being made,
+     * as when the system starts without a snapshot.
+     *
+     * @param position The journal position the live state corresponds to.
+     * @return The snapshot of the live state.
+     */
+    public static StateSnapshot capture(long position) {
+        StateSnapshot snapshot = new StateSnapshot(position);
+        for (int id = 1; UniversityCoursesManagementSystem.findCourseByID(id) != null; id++) {
+            Course course = UniversityCoursesManagementSystem.findCourseByID(id);
+            snapshot.courseNames.add(course.getCourseName());
+            snapshot.courseLevels.add(course.getCourseLevel());
+            int courseID = course.getCourseId();
+            course.forEachEnrolledStudentID(studentID -> snapshot.enrollments.add(pair(studentID, courseID)));
+            for (WaitlistEntry entry : course.getWaitlist()) {
+                snapshot.waitlist(courseID).add(entry.getStudentID(), entry.getPriority());
+            }
+        }
+        for (int id = 1; ; id++) {
+            Student student = UniversityCoursesManagementSystem.findStudentByID(id);
+            Professor professor = UniversityCoursesManagementSystem.findProfessorByID(id);
+            if (student != null) {
+                snapshot.memberNames.add(student.getMemberName());
+                int studentID = id;
+                student.forEachEnrolledCourseID(courseID -> {
+                    if (!UniversityCoursesManagementSystem.findCourseByID(courseID).hasStudent(student)) {
+                        snapshot.unseatedEnrollments.add(pair(studentID, courseID));
+                    }
+                });
+            } else if (professor != null) {
+                snapshot.memberNames.add(professor.getMemberName());
+                snapshot.professorIDs.set(id);
+                int professorID = id;
+                professor.forEachAssignedCourseID(courseID -> snapshot.assignments.add(pair(professorID, courseID)));
+            } else {
+                break;
+            }
+        }
+        return snapshot;
+    }
+ 
+    /**
+     * Retrieves the journal position the snapshot corresponds to.
+     *
+     * @return The position of the first journal record not in the snapshot.
+     */
+    public long getPosition() {
+        return position;
+    }
+ 
+    /**
+     * Moves the snapshot to a later journal position, once the records before it are applied.
+     *
+     * @param position The new position.
+     */
+    public void setPosition(long position) {
+        this.position = position;
+    }
+ 
+    /**
+     * Folds a journal record into the snapshot. Records already folded in leave it unchanged,
+     * so a fold interrupted part way can be run again.
+     *
+     * @param type     The type of the change.
+     * @param first    The ID of the member or course the change is about.
+     * @param second   The ID of the course for enrollment and teaching changes, otherwise 0.
+     * @param name     The name of a new member or course, otherwise null.
+     * @param argument The level of a new course or the priority of a waitlist join, otherwise -1.
+     */
+    public void apply(byte type, int first, int second, String name, byte argument) {
+        switch (type) {
+            case EnrollmentJournal.ADD_COURSE:
+                if (first > courseNames.size()) {
+                    checkNextID(first, courseNames.size());
+                    courseNames.add(name);
+                    courseLevels.add(EnrollmentJournal.levelOf(argument));
+                }
+                break;
+            case EnrollmentJournal.ADD_STUDENT:
+            case EnrollmentJournal.ADD_PROFESSOR:
+                if (first > memberNames.size()) {
+                    checkNextID(first, memberNames.size());
+                    memberNames.add(name);
+                    professorIDs.set(first, type == EnrollmentJournal.ADD_PROFESSOR);
+                }
+                break;
+            case EnrollmentJournal.ENROLL:
+                enrollments.add(pair(first, second));
+                break;
+            case EnrollmentJournal.ENROLL_UNSEATED:
+                unseatedEnrollments.add(pair(first, second));
+                break;
+            case EnrollmentJournal.DROP:
+                enrollments.remove(pair(first, second));
+                unseatedEnrollments.remove(pair(first, second));
+                break;
+            case EnrollmentJournal.TEACH:
+                assignments.add(pair(first, second));
+                break;
+            case EnrollmentJournal.EXEMPT:
+                assignments.remove(pair(first, second));
+                break;
+            case EnrollmentJournal.WAITLIST_JOIN:
+                waitlist(second).add(first, argument);
+                break;
+            case EnrollmentJournal.WAITLIST_LEAVE:
+                waitlist(second).remove(first);
+                break;
+            case EnrollmentJournal.PROMOTE:
+                waitlist(second).remove(first);
+                enrollments.add(pair(first, second));
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+ 
+    private Waitlist waitlist(int courseID) {
+        return waitlists.computeIfAbsent(courseID, id -> new Waitlist());
+    }
+ 
+    private static void checkNextID(int id, int count) {
+        if (id != count + 1) {
+            throw new IllegalStateException("Journal record for ID " + id + " follows ID " + count);
+        }
+    }
+ 
+    private static long pair(int first, int second) {
+        return (long) first << 32 | second;
+    }
+ 
+    /**
+     * Creates the courses, members, enrollments, assignments and waitlists of the snapshot in the empty system.
+     * IDs are handed out in creation order, so every object gets back its ID.
+     * Rosters are filled in increasing student ID order, and a student who finds the course full keeps
+     * the enrollment without a seat; this only happens with version 1 snapshots, which did not keep
+     * the two kinds of enrollment apart.
+     */
+    public void restore() {
+        for (int i = 0; i < courseNames.size(); i++) {
+            Course course = new Course(courseNames.get(i), courseLevels.get(i));
+            checkNextID(course.getCourseId(), i);
+            UniversityCoursesManagementSystem.registerCourse(course);
+        }
+        for (int i = 0; i < memberNames.size(); i++) {
+            UniversityMember member;
+            if (professorIDs.get(i + 1)) {
+                Professor professor = new Professor(memberNames.get(i));
+                UniversityCoursesManagementSystem.registerProfessor(professor);
+                member = professor;
             } else {
-                String level;
-                if (scanner.hasNextLine()) {
-                    level = scanner.nextLine().toUpperCase();
-                    if (!level.equals("BACHELOR") && !level.equals("MASTER")) {
-                        error = false;
-                        System.out.println("Wrong inputs");
-                        return error;
-                    }
-                CourseLevel courseLevel = CourseLevel.valueOf(level);
-                Course newCourse = new Course(courseName, courseLevel);
-                courses.add(newCourse);
-                System.out.println("Added successfully");
-                }
+                Student student = new Student(memberNames.get(i));
+                UniversityCoursesManagementSystem.registerStudent(student);
+                member = student;
+            }
+            checkNextID(member.getMemberID(), i);
+        }
+        for (long enrollment : sorted(enrollments)) {
+            Student student = UniversityCoursesManagementSystem.findStudentByID((int) (enrollment >>> 32));
+            Course course = UniversityCoursesManagementSystem.findCourseByID((int) enrollment);
+            course.enrollStudent(student);
+            student.addEnrollment(course);
+        }
+        for (long enrollment : sorted(unseatedEnrollments)) {
+            UniversityCoursesManagementSystem.findStudentByID((int) (enrollment >>> 32))
+                    .addEnrollment(UniversityCoursesManagementSystem.findCourseByID((int) enrollment));
+        }
+        for (long assignment : sorted(assignments)) {
+            UniversityCoursesManagementSystem.findProfessorByID((int) (assignment >>> 32))
+                    .assign(UniversityCoursesManagementSystem.findCourseByID((int) assignment));
+        }
+        for (Map.Entry<Integer, Waitlist> waitlist : waitlists.entrySet()) {
+            Waitlist restored = UniversityCoursesManagementSystem.findCourseByID(waitlist.getKey()).getWaitlist();
+            for (WaitlistEntry entry : waitlist.getValue()) {
+                restored.add(entry.getStudentID(), entry.getPriority());
             }
-        } else {
-            System.out.println("Wrong inputs");
-            error = false;
         }
-        return true;
     }
  
     /**
-     * fill the system with initial data including courses, students, and professors.
+     * Writes the snapshot to a new file of a directory, named after its position.
+     * The file is written under a temporary name, forced to disk and then renamed,
+     * so a crash never leaves a partial snapshot behind.
+     *
+     * @param directory The directory to write to.
+     * @return The snapshot file.
+     * @throws IOException If the file cannot be written.
      */
-    public static void fillInitialData() {
-        courses.add(new Course("java_beginner", CourseLevel.BACHELOR));
-        courses.add(new Course("java_intermediate", CourseLevel.BACHELOR));
-        courses.add(new Course("python_basics", CourseLevel.BACHELOR));
-        courses.add(new Course("algorithms", CourseLevel.MASTER));
-        courses.add(new Course("advanced_programming", CourseLevel.MASTER));
-        courses.add(new Course("mathematical_analysis", CourseLevel.MASTER));
-        courses.add(new Course("computer_vision", CourseLevel.MASTER));
- 
-        students.add(new Student("Alice"));
-        students.add(new Student("Bob"));
-        students.add(new Student("Alex"));
- 
-        professors.add(new Professor("Ali"));
-        professors.add(new Professor("Ahmed"));
-        professors.add(new Professor("Andrey"));
-        professors.get(0).teach(findCourseByName("java_beginner"));
-        professors.get(0).teach(findCourseByName("java_intermediate"));
-        professors.get(1).teach(findCourseByName("python_basics"));
-        professors.get(1).teach(findCourseByName("advanced_programming"));
-        professors.get(2).teach(findCourseByName("mathematical_analysis"));
-        students.get(0).enroll(findCourseByName("java_beginner"));
-        students.get(0).enroll(findCourseByName("java_intermediate"));
-        students.get(0).enroll(findCourseByName("python_basics"));
-        students.get(1).enroll(findCourseByName("java_beginner"));
-        students.get(1).enroll(findCourseByName("algorithms"));
-        students.get(2).enroll(findCourseByName("advanced_programming"));
+    public Path write(Path directory) throws IOException {
+        List<byte[]> courseBytes = encode(courseNames);
+        List<byte[]> memberBytes = encode(memberNames);
+        int waitlistEntries = 0;
+        for (Waitlist waitlist : waitlists.values()) {
+            waitlistEntries += waitlist.size();
+        }
+        int size = 4 + 4 + 8 + 6 * 4 + 8 * (enrollments.size() + unseatedEnrollments.size() + assignments.size())
+                + 12 * waitlistEntries + 4;
+        for (byte[] name : courseBytes) {
+            size += 1 + 4 + name.length;
+        }
+        for (byte[] name : memberBytes) {
+            size += 1 + 4 + name.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(position)
+                .putInt(courseNames.size()).putInt(memberNames.size())
+                .putInt(enrollments.size()).putInt(unseatedEnrollments.size()).putInt(assignments.size())
+                .putInt(waitlistEntries);
+        for (int i = 0; i < courseBytes.size(); i++) {
+            buffer.put((byte) courseLevels.get(i).ordinal()).putInt(courseBytes.get(i).length).put(courseBytes.get(i));
+        }
+        for (int i = 0; i < memberBytes.size(); i++) {
+            buffer.put((byte) (professorIDs.get(i + 1) ? 1 : 0))
+                    .putInt(memberBytes.get(i).length).put(memberBytes.get(i));
+        }
+        putSorted(buffer, enrollments);
+        putSorted(buffer, unseatedEnrollments);
+        putSorted(buffer, assignments);
+        for (Map.Entry<Integer, Waitlist> waitlist : waitlists.entrySet()) {
+            for (WaitlistEntry entry : waitlist.getValue()) {
+                buffer.putInt(waitlist.getKey()).putInt(entry.getStudentID()).putInt(entry.getPriority());
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        Path file = directory.resolve(String.format("%s%020d%s", PREFIX, position, SUFFIX));
+        Path temporary = directory.resolve(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return file;
+    }
+ 
+    private static List<byte[]> encode(List<String> names) {
+        List<byte[]> encoded = new ArrayList<>(names.size());
+        for (String name : names) {
+            encoded.add(name.getBytes(StandardCharsets.UTF_8));
+        }
+        return encoded;
     }
-}
  
+    private static void putSorted(ByteBuffer buffer, Set<Long> pairs) {
+        for (long pair : sorted(pairs)) {
+            buffer.putLong(pair);
+        }
+    }
+ 
+    private static long[] sorted(Set<Long> pairs) {
+        long[] sorted = new long[pairs.size()];
+        int i = 0;
+        for (long pair : pairs) {
+            sorted[i++] = pair;
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
  
-interface Enrollable {
-    boolean enroll(Course course);
-    boolean drop(Course course);
-}
-/**
- * Represents a member of the university.
- */
-abstract class UniversityMember {
-    private static int numberOfMembers = 0;
-    private int memberID;
-    private String memberName;
     /**
-     * Constructs a UniversityMember with a given name.
+     * Reads a snapshot file by mapping it into memory.
      *
-     * @param memberName The name of the university member.
+     * @param file The snapshot file.
+     * @return The snapshot.
+     * @throws IOException If the file cannot be read or is not a valid snapshot.
      */
-    public UniversityMember(String memberName) {
-        this.memberID = ++numberOfMembers;
-        this.memberName = memberName;
+    public static StateSnapshot read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 36 || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            int version = buffer.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + file);
+            }
+            CRC32 crc = new CRC32();
+            ByteBuffer content = buffer.duplicate();
+            content.position(0).limit(buffer.limit() - 4);
+            crc.update(content);
+            if ((int) crc.getValue() != buffer.getInt(buffer.limit() - 4)) {
+                throw new IOException("Corrupt snapshot: " + file);
+            }
+            StateSnapshot snapshot = new StateSnapshot(buffer.getLong());
+            int courseCount = buffer.getInt();
+            int memberCount = buffer.getInt();
+            int enrollmentCount = buffer.getInt();
+            // version 1 snapshots predate enrollments without a roster seat
+            int unseatedCount = version == 1 ? 0 : buffer.getInt();
+            int assignmentCount = buffer.getInt();
+            // version 2 snapshots predate waitlists
+            int waitlistCount = version < 3 ? 0 : buffer.getInt();
+            for (int i = 0; i < courseCount; i++) {
+                snapshot.courseLevels.add(CourseLevel.values()[buffer.get()]);
+                snapshot.courseNames.add(getName(buffer));
+            }
+            for (int i = 0; i < memberCount; i++) {
+                snapshot.professorIDs.set(i + 1, buffer.get() == 1);
+                snapshot.memberNames.add(getName(buffer));
+            }
+            for (int i = 0; i < enrollmentCount; i++) {
+                snapshot.enrollments.add(buffer.getLong());
+            }
+            for (int i = 0; i < unseatedCount; i++) {
+                snapshot.unseatedEnrollments.add(buffer.getLong());
+            }
+            for (int i = 0; i < assignmentCount; i++) {
+                snapshot.assignments.add(buffer.getLong());
+            }
+            for (int i = 0; i < waitlistCount; i++) {
+                int courseID = buffer.getInt();
+                int studentID = buffer.getInt();
+                snapshot.waitlist(courseID).add(studentID, buffer.getInt());
+            }
+            return snapshot;
+        }
     }
+ 
+    private static String getName(ByteBuffer buffer) {
+        byte[] name = new byte[buffer.getInt()];
+        buffer.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+ 
     /**
-     * Retrieves the ID of the university member.
+     * Reads the latest snapshot of a directory.
      *
-     * @return The member's ID.
+     * @param directory The directory holding the snapshots.
+     * @return The snapshot with the highest position, or null if there is none.
+     * @throws IOException If the snapshot cannot be read.
      */
-    public int getMemberID() {
-        return memberID;
+    public static StateSnapshot readLatest(Path directory) throws IOException {
+        List<Path> files = list(directory);
+        return files.isEmpty() ? null : read(files.get(files.size() - 1));
     }
+ 
     /**
-     * Retrieves the name of the university member.
+     * Deletes the snapshots of a directory older than a given one.
      *
-     * @return The member's name.
+     * @param directory The directory holding the snapshots.
+     * @param latest    The snapshot to keep.
+     * @throws IOException If a snapshot cannot be deleted.
      */
-    public String getMemberName() {
-        return memberName;
+    public static void deleteOlder(Path directory, Path latest) throws IOException {
+        for (Path file : list(directory)) {
+            if (file.getFileName().toString().compareTo(latest.getFileName().toString()) < 0) {
+                Files.delete(file);
+            }
+        }
+    }
+ 
+    /**
+     * Lists the snapshot files of a directory in position order; the zero-padded names sort the same way.
+     */
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        files.sort(null);
+        return files;
     }
 }
 /**
- * Represents a student in the university.
+ * Takes snapshots in the background: asks the journal to start a new segment, folds the records of the
+ * segments closed since the previous snapshot into its own copy of the state, writes that copy, and
+ * deletes the older snapshot and the journal segments it covers.
+ * The live objects are never read or locked, so writers go on unhindered while a snapshot is taken.
  */
-class Student extends UniversityMember implements Enrollable {
-    private static final int MAX_ENROLLMENT = 3;
-    private List<Course> enrolledCourses;
+class SnapshotService {
+    private final Path directory;
+    private final EnrollmentJournal journal;
+    private final StateSnapshot state;
+    private ScheduledExecutorService scheduler;
+ 
     /**
-     * Constructs a Student with a given name.
+     * Constructs a snapshot service.
      *
-     * @param memberName The name of the student.
+     * @param directory The journal directory, where snapshots are written.
+     * @param journal   The open journal.
+     * @param state     The state as of the position the journal was last replayed from.
      */
-    public Student(String memberName) {
-        super(memberName);
-        enrolledCourses = new ArrayList<>();
+    public SnapshotService(Path directory, EnrollmentJournal journal, StateSnapshot state) {
+        this.directory = directory;
+        this.journal = journal;
+        this.state = state;
     }
+ 
     /**
-     * Enrolls the student in a course.
+     * Starts a background thread taking a snapshot at a fixed period.
      *
-     * @param course The course to be enrolled in.
-     * @return True if enrollment is successful, if else false.
+     * @param periodSeconds The period between snapshots, in seconds.
      */
-    @Override
-    public boolean enroll(Course course) {
-        if (enrolledCourses.contains(course)) {
-            System.out.println("Student is already enrolled in this course");
-            System.exit(0);
-            return false;
+    public synchronized void start(long periodSeconds) {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "snapshot-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    takeSnapshot();
+                } catch (IOException e) {
+                    System.err.println("Snapshot failed: " + e.getMessage());
+                }
+            }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        }
+    }
  
-        } else if (enrolledCourses.size() >= MAX_ENROLLMENT) {
-            System.out.println("Maximum enrollment is reached for the student");
-            System.exit(0);
-            return false;
-        } else {
-        enrolledCourses.add(course);
-        course.enrollStudent(this);
-        return true;
+    /**
+     * Stops the background thread taking snapshots.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
         }
     }
+ 
     /**
-     * Drops a course that the student was enrolled in.
+     * Takes a snapshot of every change journaled so far, unless nothing changed since the last one.
      *
-     * @param course The course to be dropped.
-     * @return True if dropping the course is successful, if else false.
+     * @return The journal position of the latest snapshot.
+     * @throws IOException If the journal cannot be read or the snapshot written.
      */
-    @Override
-    public boolean drop(Course course) {
-        if (enrolledCourses.contains(course)) {
-            enrolledCourses.remove(course);
-            course.dropStudent(this);
-            return true;
-        } else {
-            System.out.println("Student is not enrolled in this course");
-            System.exit(0);
-            return false;
+    public synchronized long takeSnapshot() throws IOException {
+        long boundary = journal.roll();
+        if (boundary == state.getPosition()) {
+            return boundary;
+        }
+        long end = EnrollmentJournal.replay(directory, state.getPosition(), boundary, state::apply);
+        if (end != boundary) {
+            throw new IOException("Journal ends at " + end + " before segment boundary " + boundary);
         }
+        state.setPosition(boundary);
+        Path file = state.write(directory);
+        StateSnapshot.deleteOlder(directory, file);
+        EnrollmentJournal.deleteSegmentsBefore(directory, boundary);
+        return boundary;
     }
 }
 /**
- * Represents a university professor who can teach courses.
+ * Represents a seat held for a student until the student confirms it or the hold expires.
  */
-class Professor extends UniversityMember {
-    static final int MAX_LOAD = 2;
-    private List<Course> assignedCourses;
+class SeatHold {
+    static final int HELD = 0;
+    static final int CONFIRMED = 1;
+    static final int RELEASED = 2;
+    static final int EXPIRED = 3;
+    private final int studentID;
+    private final int courseID;
+    private final long deadline;
+    private final AtomicInteger state;
+    private long remainingRounds;
+ 
     /**
-     * Constructs a Professor with a given name.
+     * Constructs a hold on a seat.
      *
-     * @param memberName The name of the professor.
+     * @param studentID The ID of the student the seat is held for.
+     * @param courseID  The ID of the course of the seat.
+     * @param deadline  The clock time, in nanoseconds, at which the hold expires.
      */
-    public Professor(String memberName) {
-        super(memberName);
-        assignedCourses = new ArrayList<>();
+    SeatHold(int studentID, int courseID, long deadline) {
+        this.studentID = studentID;
+        this.courseID = courseID;
+        this.deadline = deadline;
+        this.state = new AtomicInteger(HELD);
+    }
+ 
+    public int getStudentID() {
+        return studentID;
+    }
+ 
+    public int getCourseID() {
+        return courseID;
+    }
+ 
+    public long getDeadline() {
+        return deadline;
     }
+ 
     /**
-     * Assigns a course to the professor for teaching.
+     * Checks if the hold still reserves its seat, waiting for a confirmation.
      *
-     * @param course The course to be taught.
-     * @return True if the course assignment is successful, false otherwise.
+     * @return True if the hold is neither confirmed, released nor expired.
      */
-    public boolean teach(Course course) {
-        if (assignedCourses.size() >= MAX_LOAD) {
-            System.out.println("Professor's load is complete");
-            System.exit(0);
-            return false;
-        }
-        if (assignedCourses.contains(course)) {
-            System.out.println("Professor is already teaching this course");
-            System.exit(0);
-            return false;
-        }
-            assignedCourses.add(course);
-            return true;
-        }
+    public boolean isHeld() {
+        return state.get() == HELD;
+    }
+ 
     /**
-     * Removes a course from the professor's teaching assignment.
+     * Moves the hold out of the held state, if it is still held.
      *
-     * @param course The course to be exempted.
-     * @return True if the course removal is successful, false otherwise.
+     * @param newState The state to move to.
+     * @return True if this call ended the hold, false if it had already ended.
      */
-    public boolean exempt(Course course) {
-            if (!assignedCourses.contains(course)) {
-                System.out.println("Professor is not teaching this course");
-                System.exit(0);
-                return false;
-            } else {
-                assignedCourses.remove(course);
-                return true;
+    boolean end(int newState) {
+        return state.compareAndSet(HELD, newState);
+    }
+ 
+    long getRemainingRounds() {
+        return remainingRounds;
+    }
+ 
+    void setRemainingRounds(long remainingRounds) {
+        this.remainingRounds = remainingRounds;
     }
-     }
 }
 /**
- * Represents a course offered by the university.
+ * Lock-free counter of the free seats of one course, kept by the course as its roster changes and taken by
+ * seat holds, so it is the one count of free seats every path goes through.
+ * Taking a seat is a compare-and-set loop that never lets the count go below zero, and giving one back is
+ * a single atomic increment, so no thread ever waits on another.
  */
-class Course {
-    private String courseName;
-    private CourseLevel courseLevel;
-    private List<Student> enrolledStudents;
-    private static final int CAPACITY = 3;
-    private static int numberOfCourses = 0;
-    private int courseId;
+class SeatAllocator {
+    private final AtomicInteger freeSeats;
  
     /**
-     * Constructs a Course with a given name and level.
+     * Constructs an allocator with every seat free.
      *
-     * @param courseName  The name of the course.
-     * @param courseLevel The level of the course (Bachelor or Master).
+     * @param capacity The number of seats.
      */
-    public Course(String courseName, CourseLevel courseLevel) {
-        this.courseId = ++numberOfCourses;
-        this.courseName = courseName;
-        this.courseLevel = courseLevel;
-        enrolledStudents = new ArrayList<>();
+    SeatAllocator(int capacity) {
+        this.freeSeats = new AtomicInteger(capacity);
     }
  
- 
     /**
-     * Enrolls a student in the course.
+     * Takes a free seat, if there is one.
      *
-     * @param student The student to be enrolled.
-     * @return True if the enrollment is successful, false otherwise.
+     * @return True if a seat was taken, false if the course is full.
      */
-    public boolean enrollStudent(Student student) {
-        if (enrolledStudents.size() < CAPACITY) {
-            enrolledStudents.add(student);
-            return true;
+    public boolean take() {
+        int free = freeSeats.get();
+        while (free > 0) {
+            if (freeSeats.compareAndSet(free, free - 1)) {
+                return true;
+            }
+            free = freeSeats.get();
         }
         return false;
     }
+ 
+    /**
+     * Gives a seat back.
+     */
+    public void giveBack() {
+        freeSeats.getAndIncrement();
+    }
+ 
     /**
-     * Drops a student from the course.
+     * Retrieves the number of seats neither enrolled nor held.
      *
-     * @param student The student to be dropped.
+     * @return The number of free seats.
      */
-    public void dropStudent(Student student) {
-        enrolledStudents.remove(student);
+    public int getFreeSeats() {
+        return freeSeats.get();
     }
+}
+/**
+ * Hashed timer wheel expiring seat holds.
+ * A hold is dropped into the bucket of its deadline tick together with the number of full turns left,
+ * and each tick only looks at one bucket, so expiry never scans the live holds.
+ * A hold scheduled while its bucket is being processed may be passed to the expiry action twice.
+ */
+class HoldTimerWheel {
+    private final ConcurrentLinkedQueue<SeatHold>[] buckets;
+    private final long tickNanos;
+    private final long startTime;
+    private final Consumer<SeatHold> onExpiry;
+    private volatile long processedTicks;
+ 
     /**
-     * Retrieves the name of the course.
+     * Constructs a timer wheel.
      *
-     * @return The name of the course.
+     * @param bucketCount The number of buckets, a power of two.
+     * @param tickNanos   The duration of one tick, in nanoseconds.
+     * @param startTime   The clock time, in nanoseconds, of tick zero.
+     * @param onExpiry    The action run for every hold that expires, which must ignore holds already ended.
      */
-    public String getCourseName() {
-        return courseName;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    HoldTimerWheel(int bucketCount, long tickNanos, long startTime, Consumer<SeatHold> onExpiry) {
+        this.buckets = new ConcurrentLinkedQueue[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.tickNanos = tickNanos;
+        this.startTime = startTime;
+        this.onExpiry = onExpiry;
     }
  
     /**
-     * Retrieves the unique ID of the course.
+     * Schedules the expiry of a hold.
      *
-     * @return The course ID.
+     * @param hold The hold to expire at its deadline.
      */
-    public int getCourseId() {
-        return courseId;
+    public void schedule(SeatHold hold) {
+        long deadlineTick = Math.max(processedTicks, (hold.getDeadline() - startTime + tickNanos - 1) / tickNanos);
+        hold.setRemainingRounds(deadlineTick / buckets.length);
+        buckets[(int) (deadlineTick & (buckets.length - 1))].offer(hold);
+        if (processedTicks > deadlineTick && hold.isHeld()) {
+            // The tick was claimed while the hold was being offered and may have missed it.
+            onExpiry.accept(hold);
+        }
     }
+ 
     /**
-     * Checks if the course has reached maximum capacity.
+     * Processes every tick up to a clock time, expiring the holds that are due and still held.
+     * Must be called by one thread at a time.
      *
-     * @return True if the course is full, false otherwise.
+     * @param now The current clock time, in nanoseconds.
      */
-    public boolean isFull() {
-        return enrolledStudents.size() >= CAPACITY;
+    public synchronized void advance(long now) {
+        long currentTick = (now - startTime) / tickNanos;
+        while (processedTicks <= currentTick) {
+            long tick = processedTicks;
+            processedTicks = tick + 1;
+            long round = tick / buckets.length;
+            ConcurrentLinkedQueue<SeatHold> bucket = buckets[(int) (tick & (buckets.length - 1))];
+            for (int pending = bucket.size(); pending > 0; pending--) {
+                SeatHold hold = bucket.poll();
+                if (hold == null) {
+                    break;
+                }
+                if (!hold.isHeld()) {
+                    continue;
+                }
+                if (hold.getRemainingRounds() > round) {
+                    bucket.offer(hold);
+                } else {
+                    onExpiry.accept(hold);
+                }
+            }
+        }
     }
 }
 /**
@@ -766,4 +7177,176 @@ class Course {
 enum CourseLevel {
     BACHELOR,
     MASTER
+}
+/**
+ * Compressed set of non-negative ints in the style of a roaring bitmap.
+ * Values are grouped by their upper 16 bits; each group is a sorted array of their lower 16 bits
+ * while it is small, and a 65536-bit bitmap once it grows past {@value #ARRAY_LIMIT} values.
+ */
+class CompactBitmap {
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int BITMAP_WORDS = 1024;
+    private char[] keys = new char[0];
+    private Object[] containers = new Object[0];
+    private int[] cardinalities = new int[0];
+    private int size;
+ 
+    /**
+     * Adds a value to the set.
+     *
+     * @param value The value to add.
+     * @return True if the value was not in the set yet, false otherwise.
+     */
+    public boolean add(int value) {
+        char key = (char) (value >>> 16);
+        char low = (char) value;
+        int index = Arrays.binarySearch(keys, key);
+        if (index < 0) {
+            index = -index - 1;
+            keys = insert(keys, index, key);
+            containers = insert(containers, index, new char[4]);
+            cardinalities = insert(cardinalities, index, 0);
+        }
+        int cardinality = cardinalities[index];
+        if (containers[index] instanceof long[]) {
+            long[] words = (long[]) containers[index];
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) != 0) {
+                return false;
+            }
+            words[low >>> 6] |= bit;
+        } else {
+            char[] values = (char[]) containers[index];
+            int position = Arrays.binarySearch(values, 0, cardinality, low);
+            if (position >= 0) {
+                return false;
+            }
+            position = -position - 1;
+            if (cardinality == ARRAY_LIMIT) {
+                long[] words = new long[BITMAP_WORDS];
+                for (int i = 0; i < cardinality; i++) {
+                    words[values[i] >>> 6] |= 1L << values[i];
+                }
+                words[low >>> 6] |= 1L << low;
+                containers[index] = words;
+            } else {
+                if (cardinality == values.length) {
+                    values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, cardinality * 2));
+                    containers[index] = values;
+                }
+                System.arraycopy(values, position, values, position + 1, cardinality - position);
+                values[position] = low;
+            }
+        }
+        cardinalities[index]++;
+        size++;
+        return true;
+    }
+ 
+    /**
+     * Removes a value from the set.
+     *
+     * @param value The value to remove.
+     * @return True if the value was in the set, false otherwise.
+     */
+    public boolean remove(int value) {
+        int index = Arrays.binarySearch(keys, (char) (value >>> 16));
+        if (index < 0) {
+            return false;
+        }
+        char low = (char) value;
+        int cardinality = cardinalities[index];
+        if (containers[index] instanceof long[]) {
+            long[] words = (long[]) containers[index];
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) == 0) {
+                return false;
+            }
+            words[low >>> 6] &= ~bit;
+        } else {
+            char[] values = (char[]) containers[index];
+            int position = Arrays.binarySearch(values, 0, cardinality, low);
+            if (position < 0) {
+                return false;
+            }
+            System.arraycopy(values, position + 1, values, position, cardinality - position - 1);
+        }
+        cardinalities[index]--;
+        size--;
+        return true;
+    }
+ 
+    /**
+     * Checks if a value is in the set.
+     *
+     * @param value The value to look for.
+     * @return True if the value is in the set, false otherwise.
+     */
+    public boolean contains(int value) {
+        int index = Arrays.binarySearch(keys, (char) (value >>> 16));
+        if (index < 0) {
+            return false;
+        }
+        char low = (char) value;
+        if (containers[index] instanceof long[]) {
+            return (((long[]) containers[index])[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) containers[index], 0, cardinalities[index], low) >= 0;
+    }
+ 
+    /**
+     * Retrieves the number of values in the set.
+     *
+     * @return The number of values.
+     */
+    public int size() {
+        return size;
+    }
+ 
+    /**
+     * Passes every value of the set, in increasing order, to an action.
+     *
+     * @param action The action to run for each value.
+     */
+    public void forEach(IntConsumer action) {
+        for (int index = 0; index < keys.length; index++) {
+            int high = keys[index] << 16;
+            if (containers[index] instanceof long[]) {
+                long[] words = (long[]) containers[index];
+                for (int word = 0; word < BITMAP_WORDS; word++) {
+                    long bits = words[word];
+                    while (bits != 0) {
+                        action.accept(high | (word << 6) | Long.numberOfTrailingZeros(bits));
+                        bits &= bits - 1;
+                    }
+                }
+            } else {
+                char[] values = (char[]) containers[index];
+                for (int i = 0; i < cardinalities[index]; i++) {
+                    action.accept(high | values[i]);
+                }
+            }
+        }
+    }
+ 
+    private static char[] insert(char[] array, int index, char value) {
+        char[] result = Arrays.copyOf(array, array.length + 1);
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        result[index] = value;
+        return result;
+    }
+ 
+    private static int[] insert(int[] array, int index, int value) {
+        int[] result = Arrays.copyOf(array, array.length + 1);
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        result[index] = value;
+        return result;
+    }
+ 
+    private static Object[] insert(Object[] array, int index, Object value) {
+        Object[] result = Arrays.copyOf(array, array.length + 1);
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        result[index] = value;
+        return result;
+    }
 }
\ No newline at end of file